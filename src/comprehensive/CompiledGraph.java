@@ -0,0 +1,848 @@
+package comprehensive;
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+
+/**
+ *  A frozen, read-only copy of a DirectedGraph where every word is replaced by an int id.
+ *  The seed word is resolved to an id once, and every generation step after that only reads
+ *  primitive arrays, so there is no hashing, String comparison or allocation per step.
+ *  Ids are only turned back into text when the output is written, using a table of
+ *  pre-encoded UTF-8 words.
+ *  <p>
+ *  The edges are stored in compressed sparse row form: the successors of the word with id {@code v}
+ *  are {@code successors[offsets[v]]} to {@code successors[offsets[v + 1] - 1]}, ordered from most
+ *  to least probable (ties broken lexicographically), so the most probable word is always the first one.
+ *  {@code cumulativeCounts} holds the running total of occurrences over each edge list, which lets a
+ *  random successor be picked with a binary search in O(log(K)).
+ *  <p>
+ *  Word ids are the slots of a minimal perfect hash over the vocabulary, so finding the id of a word
+ *  is a single probe into the VocabularyIndex followed by one comparison, with no HashMap involved.
+ *  The whole graph, index included, can be saved to a binary model file. Loading a model file
+ *  memory-maps it instead of reading it, and every array is read straight out of the mapping,
+ *  so only the pages holding the seed's vertex and the vertexes the walk goes through are ever touched.
+ *  A graph compiled in memory keeps plain int arrays as well, and the lookups a walk makes read those
+ *  directly, so generating from a trained model never pays for going through a buffer.
+ *  <p>
+ *  For scoring, the number of times a word pair occurs can be found in O(1) through a hash table
+ *  of pairs, which is only built the first time it's needed.
+ *  <p>
+ *  reverse() turns the graph around, so the same lookups, walks and top K lists work on the words
+ *  that come before a word instead of after it.
+ *
+ * @see VocabularyIndex for the word lookup
+ * @see DirectedGraph#compile() to create a CompiledGraph
+ */
+public class CompiledGraph {
+
+    private static final int MAGIC = 0x4d4b4731; // "MKG1", the first four bytes of every model file
+
+    private static final int HEADER_BYTES = 24; // magic, word count, edge count, seed and bucket count
+
+    //every array is a buffer, so it can either wrap a Java array or be a view of a memory-mapped model file
+    private final int size; // the number of words
+    private final ByteBuffer wordBytes; // the UTF-8 bytes of every word, one after another in id order
+    private final IntBuffer wordOffsets; // where the word of each id starts in wordBytes, with one extra entry at the end
+    private final VocabularyIndex index; // the minimal perfect hash giving the id of every word
+    private final IntBuffer offsets; // where the edge list of each id starts in successors, with one extra entry at the end
+    private final IntBuffer successors; // the destination ids of every edge list, most probable first
+    private final IntBuffer cumulativeCounts; // the running total of occurrences for every edge list
+
+    //the arrays behind the buffers above when the graph was compiled in memory, or null for a mapped model file,
+    //read through offsetAt(), successorAt() and countAt() so every lookup is written only once
+    private final int[] offsetArray;
+    private final int[] successorArray;
+    private final int[] countArray;
+
+    //open addressing table from (source, destination) pairs to occurrences, created the first time it's needed
+    private volatile long[] pairKeys; // the source id in the upper half, the destination id in the lower half
+    private int[] pairCounts; // the occurrences of the pair in the same slot of pairKeys
+
+    /**
+     * Creates a new CompiledGraph object from already compiled arrays.
+     * @param encodedWords the UTF-8 bytes of the word for every id
+     * @param index the minimal perfect hash over the words, where the slot of every word is its id
+     * @param offsets the start of the edge list of every id, plus the total number of edges at the end
+     * @param successors the destination ids of every edge list, most probable first
+     * @param cumulativeCounts the running total of occurrences for every edge list
+     */
+    CompiledGraph(byte[][] encodedWords, VocabularyIndex index, int[] offsets, int[] successors, int[] cumulativeCounts)
+    {
+        this(encodedWords.length, joinWords(encodedWords), wordOffsetsOf(encodedWords), index,
+                IntBuffer.wrap(offsets), IntBuffer.wrap(successors), IntBuffer.wrap(cumulativeCounts));
+    }
+
+
+    /**
+     * Creates a new CompiledGraph object from buffers, which may be views of a model file.
+     * @param size the number of words
+     * @param wordBytes the UTF-8 bytes of every word, one after another in id order
+     * @param wordOffsets where the word of each id starts in wordBytes, plus the total number of bytes at the end
+     * @param index the minimal perfect hash over the words, where the slot of every word is its id
+     * @param offsets the start of the edge list of every id, plus the total number of edges at the end
+     * @param successors the destination ids of every edge list, most probable first
+     * @param cumulativeCounts the running total of occurrences for every edge list
+     */
+    private CompiledGraph(int size, ByteBuffer wordBytes, IntBuffer wordOffsets, VocabularyIndex index,
+                          IntBuffer offsets, IntBuffer successors, IntBuffer cumulativeCounts)
+    {
+        this.size = size;
+        this.wordBytes = wordBytes;
+        this.wordOffsets = wordOffsets;
+        this.index = index;
+        this.offsets = offsets;
+        this.successors = successors;
+        this.cumulativeCounts = cumulativeCounts;
+        this.offsetArray = arrayOf(offsets);
+        this.successorArray = arrayOf(successors);
+        this.countArray = arrayOf(cumulativeCounts);
+    }
+
+
+    /**
+     * Gets the array behind a buffer, if the buffer is a whole Java array.
+     * @param buffer the buffer
+     * @return the array holding exactly the ints of the buffer, or null if the buffer is a view of a file
+     */
+    private static int[] arrayOf(IntBuffer buffer)
+    {
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity())
+        {
+            return buffer.array();
+        }
+        return null;
+    }
+
+
+    /**
+     * Gets the id of the given word.
+     * @param word the (already formatted) word to look up
+     * @return the id of the word, or -1 if the word is not in the graph
+     */
+    public int getId(String word)
+    {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return getId(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Gets the id of the word held in a range of a byte array.
+     * @param word an array holding the UTF-8 bytes of the (already formatted) word
+     * @param from the index of the first byte of the word
+     * @param to the index after the last byte of the word
+     * @return the id of the word, or -1 if the word is not in the graph
+     */
+    public int getId(byte[] word, int from, int to)
+    {
+        if(size == 0)
+        {
+            return -1;
+        }
+        //the index gives the only slot the word could be in, so one comparison is enough
+        int id = index.slotOf(word, from, to);
+        int start = wordOffsets.get(id);
+        if(wordOffsets.get(id + 1) - start != to - from)
+        {
+            return -1;
+        }
+        for(int i = from; i < to; i++)
+        {
+            if(wordBytes.get(start++) != word[i])
+                return -1;
+        }
+        return id;
+    }
+
+
+    /**
+     * Gets the word with the given id.
+     * @param id the id of the word
+     * @return the word with the given id
+     */
+    public String getWord(int id)
+    {
+        return new String(getWordBytes(id), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Gets the number of words in the graph, including the ones without any successors.
+     * @return the number of ids in the graph
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Gets the UTF-8 bytes of the word with the given id.
+     * @param id the id of the word
+     * @return a new array holding the bytes of the word
+     */
+    public byte[] getWordBytes(int id)
+    {
+        byte[] word = new byte[wordOffsets.get(id + 1) - wordOffsets.get(id)];
+        wordBytes.get(wordOffsets.get(id), word);
+        return word;
+    }
+
+
+    /**
+     * Gets the number of different words that come after the given word.
+     * @param id the id of the source word
+     * @return the number of successors
+     */
+    public int getDegree(int id)
+    {
+        return offsets.get(id + 1) - offsets.get(id);
+    }
+
+
+    /**
+     * Gets one successor of the given word, in order from most probable to least probable.
+     * @param id the id of the source word
+     * @param i the position of the successor, from 0 to getDegree(id) - 1
+     * @return the id of the successor
+     */
+    public int getSuccessor(int id, int i)
+    {
+        return successors.get(offsets.get(id) + i);
+    }
+
+
+    /**
+     * Gets the number of times one successor came after the given word.
+     * @param id the id of the source word
+     * @param i the position of the successor, from 0 to getDegree(id) - 1
+     * @return the occurrences of the word pair
+     */
+    public int getSuccessorCount(int id, int i)
+    {
+        int edge = offsets.get(id) + i;
+        return cumulativeCounts.get(edge) - ((i > 0) ? cumulativeCounts.get(edge - 1) : 0);
+    }
+
+
+    /**
+     * Gets the most probable successor of the given word, breaking ties lexicographically.
+     * @param id the id of the source word
+     * @return the id of the most probable next word, or -1 if the word has no successors
+     */
+    public int getMax(int id)
+    {
+        int start = offsetAt(id);
+        return (start < offsetAt(id + 1)) ? successorAt(start) : -1;
+    }
+
+
+    /**
+     * Gets a random successor of the given word, weighted by how often each word pair occurs.
+     * @param id the id of the source word
+     * @return the id of a random next word, or -1 if the word has no successors
+     */
+    public int getRandom(int id)
+    {
+        int low = offsetAt(id);
+        int high = offsetAt(id + 1) - 1;
+        if(low > high)
+        {
+            return -1;
+        }
+
+        //pick an occurrence, then binary search for the first edge whose running total passes it
+        int target = ThreadLocalRandom.current().nextInt(countAt(high));
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(countAt(middle) > target)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return successorAt(low);
+    }
+
+
+    /**
+     * Reads offsets, from the plain array when the graph was compiled in memory.
+     * @param id the id of the word
+     * @return where the edge list of the word starts
+     */
+    private int offsetAt(int id)
+    {
+        return (offsetArray != null) ? offsetArray[id] : offsets.get(id);
+    }
+
+
+    /**
+     * Reads successors, from the plain array when the graph was compiled in memory.
+     * @param edge the index of the edge
+     * @return the destination id of the edge
+     */
+    private int successorAt(int edge)
+    {
+        return (successorArray != null) ? successorArray[edge] : successors.get(edge);
+    }
+
+
+    /**
+     * Reads cumulativeCounts, from the plain array when the graph was compiled in memory.
+     * @param edge the index of the edge
+     * @return the running total of occurrences up to and including the edge
+     */
+    private int countAt(int edge)
+    {
+        return (countArray != null) ? countArray[edge] : cumulativeCounts.get(edge);
+    }
+
+
+    /**
+     * Gets the total number of occurrences of every word pair starting with the given word.
+     * @param id the id of the source word
+     * @return the number of times any word came after the source word
+     */
+    public int getTotal(int id)
+    {
+        return (offsets.get(id) < offsets.get(id + 1)) ? cumulativeCounts.get(offsets.get(id + 1) - 1) : 0;
+    }
+
+
+    /**
+     * Gets the number of times the destination word came right after the source word, in O(1).
+     * @param source the id of the source word
+     * @param destination the id of the destination word
+     * @return the occurrences of the word pair, or 0 if it never occurred
+     */
+    public int getCount(int source, int destination)
+    {
+        long[] keys = pairKeys;
+        if(keys == null)
+        {
+            keys = buildPairTable();
+        }
+
+        long key = ((long) source << 32) | destination;
+        int mask = keys.length - 1;
+        for(int slot = hashPair(key) & mask; keys[slot] != -1; slot = (slot + 1) & mask)
+        {
+            if(keys[slot] == key)
+            {
+                return pairCounts[slot];
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Gets the log of the probability that the destination word comes after the source word.
+     * With additive smoothing, the probability is (count + smoothing) / (total + smoothing * size()),
+     * so pairs that never occurred (or words that aren't in the graph) still get a small probability.
+     * Without smoothing, or with an empty graph, an unseen pair has a log probability of negative infinity.
+     * @param source the id of the source word, or -1 if it is not in the graph
+     * @param destination the id of the destination word, or -1 if it is not in the graph
+     * @param smoothing the pseudo-count added to every possible pair, 0 for no smoothing
+     * @return the natural log of P(destination | source)
+     * @throws IllegalArgumentException if smoothing is negative or NaN
+     */
+    public double logProbability(int source, int destination, double smoothing)
+    {
+        checkSmoothing(smoothing);
+        int total = (source < 0) ? 0 : getTotal(source);
+        int count = (source < 0 || destination < 0) ? 0 : getCount(source, destination);
+        //with nothing to spread the smoothing over, there is no probability to give
+        if(total == 0 && (smoothing == 0 || size == 0))
+        {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Math.log((count + smoothing) / (total + smoothing * size));
+    }
+
+
+    /**
+     * Checks that a smoothing pseudo-count can be used, which NaN can't since it compares false to everything.
+     * @param smoothing the pseudo-count to check
+     * @throws IllegalArgumentException if smoothing is negative or NaN
+     */
+    static void checkSmoothing(double smoothing)
+    {
+        if(!(smoothing >= 0))
+        {
+            throw new IllegalArgumentException("Smoothing must be a number that is not negative, but was " + smoothing);
+        }
+    }
+
+
+    /**
+     * Builds the table of word pairs used by getCount(), unless another thread already did.
+     * @return the keys of the table
+     */
+    private synchronized long[] buildPairTable()
+    {
+        if(pairKeys != null)
+        {
+            return pairKeys;
+        }
+
+        //keep the table at most half full so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(2, successors.capacity() * 2) - 1) << 1;
+        long[] keys = new long[capacity];
+        int[] counts = new int[capacity];
+        Arrays.fill(keys, -1);
+        int mask = capacity - 1;
+        for(int source = 0; source < size; source++)
+        {
+            for(int i = offsets.get(source); i < offsets.get(source + 1); i++)
+            {
+                long key = ((long) source << 32) | successors.get(i);
+                int slot = hashPair(key) & mask;
+                while(keys[slot] != -1)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                counts[slot] = cumulativeCounts.get(i) - ((i > offsets.get(source)) ? cumulativeCounts.get(i - 1) : 0);
+            }
+        }
+
+        //the counts have to be in place before the keys are published
+        pairCounts = counts;
+        pairKeys = keys;
+        return keys;
+    }
+
+
+    /**
+     * Spreads the bits of a word pair key over an int, so neighbouring ids land far apart in the table.
+     * @param key the source id in the upper half, the destination id in the lower half
+     * @return the hash of the key
+     */
+    private static int hashPair(long key)
+    {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+
+    /**
+     * Gets the K most probable words that come after the given word, separated by spaces,
+     * in order from most probable to least probable.
+     * Like DirectedGraph.getMostProbableList(), at least one word is returned if there are any connections.
+     * @param id the id of the source word
+     * @param K the number of words to return, if K is greater than the number of connections it returns all of them
+     * @return the K most probable next words, or an empty string if the word has no successors
+     */
+    public String getMostProbableList(int id, int K)
+    {
+        StringBuilder result = new StringBuilder();
+        int end = offsets.get(id) + Math.min(offsets.get(id + 1) - offsets.get(id), Math.max(K, 1));
+        for(int i = offsets.get(id); i < end; i++)
+        {
+            if(i > offsets.get(id))
+                result.append(' ');
+            result.append(getWord(successors.get(i)));
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Walks the graph starting from the seed, filling the path with the id of every generated word.
+     * If a word has no successors, the walk starts again from the seed.
+     * @param seedId the id of the seed word, which is always the first word of the path
+     * @param path the array to fill, its length is the number of words to generate
+     * @param mostProbable true to always take the most probable next word, false to take a random one
+     */
+    public void walk(int seedId, int[] path, boolean mostProbable)
+    {
+        int curId = seedId;
+        for(int i = 0; i < path.length; i++)
+        {
+            path[i] = curId;
+            curId = mostProbable ? getMax(curId) : getRandom(curId);
+
+            //if there is no next word, go back to the seed
+            if(curId < 0)
+                curId = seedId;
+        }
+    }
+
+
+    /**
+     * Turns a path of ids into UTF-8 text, with the words separated by single spaces.
+     * @param path the ids of the words to write
+     * @return the encoded text, without a trailing line separator
+     */
+    public byte[] decode(int[] path)
+    {
+        //size the output exactly so the bytes are only copied once
+        int length = Math.max(path.length - 1, 0);
+        for(int id : path)
+        {
+            length += wordOffsets.get(id + 1) - wordOffsets.get(id);
+        }
+
+        byte[] result = new byte[length];
+        int position = 0;
+        for(int i = 0; i < path.length; i++)
+        {
+            if(i > 0)
+                result[position++] = ' ';
+            int start = wordOffsets.get(path[i]);
+            int wordLength = wordOffsets.get(path[i] + 1) - start;
+            wordBytes.get(start, result, position, wordLength);
+            position += wordLength;
+        }
+        return result;
+    }
+
+
+    /**
+     * Builds the reverse of this graph, where the successors of every word are the words that come before it,
+     * ordered from most to least frequent (ties broken by the bytes of the words). The reverse graph shares the
+     * vocabulary and ids of this one, so every query on it is as fast as the same query going forwards.
+     * <p>
+     * The edges are counted and placed with parallel streams, then each list of predecessors is sorted
+     * in parallel, so the result is the same no matter how the work was split between threads.
+     * @return a new graph with every edge pointing the other way
+     */
+    public CompiledGraph reverse()
+    {
+        int edgeCount = successors.capacity();
+
+        //count how many words come before each word
+        AtomicIntegerArray inDegrees = new AtomicIntegerArray(size);
+        IntStream.range(0, edgeCount).parallel().forEach(i -> inDegrees.incrementAndGet(successors.get(i)));
+        int[] reverseOffsets = new int[size + 1];
+        for(int id = 0; id < size; id++)
+        {
+            reverseOffsets[id + 1] = reverseOffsets[id] + inDegrees.get(id);
+        }
+
+        //rank every word alphabetically once, so ties can be broken without comparing words while sorting
+        int[] byRank = IntStream.range(0, size).boxed().parallel()
+                .sorted((a, b) -> compareWords(a, b)).mapToInt(Integer::intValue).toArray();
+        int[] ranks = new int[size];
+        for(int rank = 0; rank < size; rank++)
+        {
+            ranks[byRank[rank]] = rank;
+        }
+
+        //place every edge in the list of its destination, keyed so that sorting puts the most frequent first
+        AtomicIntegerArray cursors = new AtomicIntegerArray(Arrays.copyOf(reverseOffsets, size));
+        long[] keys = new long[edgeCount];
+        IntStream.range(0, size).parallel().forEach(source -> {
+            for(int i = offsets.get(source); i < offsets.get(source + 1); i++)
+            {
+                int count = cumulativeCounts.get(i) - ((i > offsets.get(source)) ? cumulativeCounts.get(i - 1) : 0);
+                keys[cursors.getAndIncrement(successors.get(i))] = ((long) (Integer.MAX_VALUE - count) << 32) | ranks[source];
+            }
+        });
+
+        //sort every list and turn the keys back into ids and running totals
+        int[] predecessors = new int[edgeCount];
+        int[] reverseCounts = new int[edgeCount];
+        IntStream.range(0, size).parallel().forEach(destination -> {
+            Arrays.sort(keys, reverseOffsets[destination], reverseOffsets[destination + 1]);
+            int total = 0;
+            for(int i = reverseOffsets[destination]; i < reverseOffsets[destination + 1]; i++)
+            {
+                total += Integer.MAX_VALUE - (int) (keys[i] >>> 32);
+                predecessors[i] = byRank[(int) keys[i]];
+                reverseCounts[i] = total;
+            }
+        });
+
+        return new CompiledGraph(size, wordBytes, wordOffsets, index,
+                IntBuffer.wrap(reverseOffsets), IntBuffer.wrap(predecessors), IntBuffer.wrap(reverseCounts));
+    }
+
+
+    /**
+     * Compares two words by their UTF-8 bytes, treating the bytes as unsigned.
+     * @param a the id of the first word
+     * @param b the id of the second word
+     * @return a negative integer, zero, or a positive integer if the first word comes before, is the same as, or comes after the second
+     */
+    private int compareWords(int a, int b)
+    {
+        int aStart = wordOffsets.get(a);
+        int bStart = wordOffsets.get(b);
+        int aLength = wordOffsets.get(a + 1) - aStart;
+        int bLength = wordOffsets.get(b + 1) - bStart;
+        for(int i = 0; i < Math.min(aLength, bLength); i++)
+        {
+            int comparison = Integer.compare(wordBytes.get(aStart + i) & 0xff, wordBytes.get(bStart + i) & 0xff);
+            if(comparison != 0)
+                return comparison;
+        }
+        return Integer.compare(aLength, bLength);
+    }
+
+
+    /**
+     * Saves the graph and its vocabulary index to a binary model file.
+     * <p>
+     * The file starts with a header (magic number, word count, edge count, hash seed, bucket count),
+     * followed by the displacement table of the index, the byte offset of every word, the edge offsets,
+     * the successors, the running occurrence totals, and finally the UTF-8 bytes of all the words.
+     * Every number is an int, except the seed which is a long, so every array can be used straight from
+     * a memory mapping of the file. Numbers are written in the byte order of this machine, so reading them
+     * from the mapping never has to swap bytes, and the magic number tells load() which order a file is in.
+     * @param filePath the path of the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(String filePath) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+            IntBuffer displacements = index.getDisplacements();
+            buffer.putInt(MAGIC).putInt(size).putInt(successors.capacity()).putLong(index.getSeed()).putInt(displacements.capacity());
+            writeInts(channel, buffer, displacements);
+            writeInts(channel, buffer, wordOffsets);
+            writeInts(channel, buffer, offsets);
+            writeInts(channel, buffer, successors);
+            writeInts(channel, buffer, cumulativeCounts);
+            for(int i = 0; i < wordBytes.capacity(); i++)
+            {
+                if(!buffer.hasRemaining())
+                    flush(channel, buffer);
+                buffer.put(wordBytes.get(i));
+            }
+            flush(channel, buffer);
+        }
+    }
+
+
+    /**
+     * Opens a graph saved with {@link #save(String)} by memory-mapping it.
+     * Nothing but the header is read here; the operating system only loads the pages of the file
+     * that lookups and walks actually touch, so opening a model takes the same time whatever its size.
+     * @param filePath the path of the model file
+     * @return the graph, backed by the mapped file
+     * @throws IOException if the file can't be read, is not a model file, or is over 2 GB
+     */
+    public static CompiledGraph load(String filePath) throws IOException
+    {
+        MappedByteBuffer file;
+        ByteOrder order;
+        try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Model files over 2 GB are not supported: " + filePath);
+            }
+            order = orderOf(channel);
+            if(order == null)
+            {
+                throw new IOException("Not a model file, or a damaged one: " + filePath);
+            }
+            //the mapping stays valid after the channel is closed
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        file.order(order);
+
+        int wordCount = file.getInt(4);
+        int edgeCount = file.getInt(8);
+        long seed = file.getLong(12);
+        int bucketCount = file.getInt(20);
+
+        //every array is a view of its part of the file, and a slice always starts out big-endian
+        int position = HEADER_BYTES;
+        IntBuffer displacements = file.slice(position, 4 * bucketCount).order(order).asIntBuffer();
+        position += 4 * bucketCount;
+        IntBuffer wordOffsets = file.slice(position, 4 * (wordCount + 1)).order(order).asIntBuffer();
+        position += 4 * (wordCount + 1);
+        IntBuffer offsets = file.slice(position, 4 * (wordCount + 1)).order(order).asIntBuffer();
+        position += 4 * (wordCount + 1);
+        IntBuffer successors = file.slice(position, 4 * edgeCount).order(order).asIntBuffer();
+        position += 4 * edgeCount;
+        IntBuffer cumulativeCounts = file.slice(position, 4 * edgeCount).order(order).asIntBuffer();
+        position += 4 * edgeCount;
+        ByteBuffer wordBytes = file.slice(position, wordOffsets.get(wordCount));
+
+        return new CompiledGraph(wordCount, wordBytes, wordOffsets, new VocabularyIndex(seed, wordCount, displacements),
+                offsets, successors, cumulativeCounts);
+    }
+
+
+    /**
+     * Gets the byte order of a model file from its first four bytes read as a big-endian int.
+     * @param magic the first four bytes of the file
+     * @return the byte order the file was written in, or null if it is not a model file
+     */
+    private static ByteOrder orderOf(int magic)
+    {
+        if(magic == MAGIC)
+            return ByteOrder.BIG_ENDIAN;
+        if(magic == Integer.reverseBytes(MAGIC))
+            return ByteOrder.LITTLE_ENDIAN;
+        return null;
+    }
+
+
+    /**
+     * Reads the header of a model file and checks that it fits the rest of the file, so a text file that
+     * happens to start with the magic number is not mistaken for a model.
+     * The counts can't be negative, the first word and edge list have to start at 0, the last edge list
+     * has to end at the edge count, and the words have to end exactly at the end of the file.
+     * @param channel the open file
+     * @return the byte order the file was written in, or null if it is not a whole model file
+     * @throws IOException if the file can't be read
+     */
+    private static ByteOrder orderOf(FileChannel channel) throws IOException
+    {
+        long length = channel.size();
+        if(length < HEADER_BYTES)
+        {
+            return null;
+        }
+        ByteOrder order = orderOf(intAt(channel, 0, ByteOrder.BIG_ENDIAN));
+        if(order == null)
+        {
+            return null;
+        }
+
+        int wordCount = intAt(channel, 4, order);
+        int edgeCount = intAt(channel, 8, order);
+        int bucketCount = intAt(channel, 20, order);
+        long wordOffsetsStart = HEADER_BYTES + 4L * bucketCount;
+        long offsetsStart = wordOffsetsStart + 4L * (wordCount + 1);
+        long wordsStart = offsetsStart + 4L * (wordCount + 1) + 8L * edgeCount;
+        if(wordCount < 0 || edgeCount < 0 || bucketCount < 0 || wordsStart > length)
+        {
+            return null;
+        }
+        boolean fits = intAt(channel, wordOffsetsStart, order) == 0
+                && intAt(channel, offsetsStart, order) == 0
+                && intAt(channel, offsetsStart + 4L * wordCount, order) == edgeCount
+                && wordsStart + intAt(channel, offsetsStart - 4, order) == length;
+        return fits ? order : null;
+    }
+
+
+    /**
+     * Reads one int from a file.
+     * @param channel the open file
+     * @param position where the int starts
+     * @param order the byte order of the file
+     * @return the int
+     * @throws IOException if the file can't be read, or ends before the int does
+     */
+    private static int intAt(FileChannel channel, long position, ByteOrder order) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(order);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        return buffer.getInt(0);
+    }
+
+
+    /**
+     * Checks if a file is a model file, from its magic number and a header that fits the rest of the file.
+     * Anything else, like a text file, is not a model file even if it starts with the same four bytes.
+     * @param filePath the path of the file to check
+     * @return true if the file is a model file, false if it is anything else (like a text file)
+     * @throws FileNotFoundException if the file doesn't exist
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isModelFile(String filePath) throws IOException
+    {
+        try(FileInputStream in = new FileInputStream(filePath))
+        {
+            return orderOf(in.getChannel()) != null;
+        }
+    }
+
+
+    /**
+     * Puts the bytes of every word one after another.
+     * @param encodedWords the UTF-8 bytes of the word for every id
+     * @return a buffer holding all the words
+     */
+    private static ByteBuffer joinWords(byte[][] encodedWords)
+    {
+        int length = 0;
+        for(byte[] word : encodedWords)
+        {
+            length += word.length;
+        }
+        ByteBuffer wordBytes = ByteBuffer.allocate(length);
+        for(byte[] word : encodedWords)
+        {
+            wordBytes.put(word);
+        }
+        return wordBytes.flip();
+    }
+
+
+    /**
+     * Finds where every word starts once they are put one after another.
+     * @param encodedWords the UTF-8 bytes of the word for every id
+     * @return the offset of every word, plus the total number of bytes at the end
+     */
+    private static IntBuffer wordOffsetsOf(byte[][] encodedWords)
+    {
+        int[] wordOffsets = new int[encodedWords.length + 1];
+        for(int id = 0; id < encodedWords.length; id++)
+        {
+            wordOffsets[id + 1] = wordOffsets[id] + encodedWords[id].length;
+        }
+        return IntBuffer.wrap(wordOffsets);
+    }
+
+
+    /**
+     * Writes every int of a buffer to a channel, through a buffer that is emptied into the channel when full.
+     * @param channel the channel to write to
+     * @param buffer the buffer to write through, in the byte order of the file
+     * @param values the ints to write
+     * @throws IOException if the channel can't be written
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, IntBuffer values) throws IOException
+    {
+        for(int i = 0; i < values.capacity(); i++)
+        {
+            if(buffer.remaining() < 4)
+                flush(channel, buffer);
+            buffer.putInt(values.get(i));
+        }
+    }
+
+
+    /**
+     * Writes everything in a buffer to a channel and empties the buffer.
+     * @param channel the channel to write to
+     * @param buffer the buffer holding the bytes to write
+     * @throws IOException if the channel can't be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,440 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Abstract class which can be used as a skeleton for load and soak tests, the way TimerTemplate is for timing tests.
+ * Instead of one thread running the same code over and over, many threads run a weighted mix of operations
+ * for a fixed amount of time, and every single call is timed.
+ * You provide the names and weights of the operations, a setup step, the code for each operation,
+ * and a check that its result is correct. Only the call itself goes in the latency histogram. The time spent
+ * checking is added up and reported on its own, since it still takes time away from the calls.
+ * The run() method starts every thread at once, lets them warm up, and reports a latency histogram for
+ * each operation, the number of calls finished in every second, and any results that failed their check.
+ */
+abstract public class ConcurrentTimerTemplate {
+
+    private static final int FAILURE_SAMPLES = 20; // the most failed checks kept in the report
+
+    private final String[] operations; // the name of every operation
+    private final double[] cumulativeWeights; // the running total of the weight of every operation
+    private final int threads; // the number of threads calling operations at once
+    private final boolean virtualThreads; // true to use virtual threads where the JVM has them
+    private final int warmupSeconds; // how long to run before anything is recorded
+    private final int durationSeconds; // how long to record for
+
+    /**
+     * Create a load test
+     * @param operations the name of every operation
+     * @param weights how often each operation is picked, relative to the others
+     * @param threads the number of threads calling operations at once
+     * @param virtualThreads true to use virtual threads, which falls back to platform threads before Java 21
+     * @param warmupSeconds how long to run before anything is recorded, so the JIT can warm up
+     * @param durationSeconds how long to record for
+     */
+    public ConcurrentTimerTemplate(String[] operations, double[] weights, int threads, boolean virtualThreads,
+                                   int warmupSeconds, int durationSeconds) {
+        this.operations = operations;
+        this.cumulativeWeights = new double[weights.length];
+        double total = 0;
+        for(int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+        this.threads = threads;
+        this.virtualThreads = virtualThreads;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+    }
+
+    /**
+     * Do any work that needs to be done before the threads start,
+     * for example computing the expected results to check against
+     */
+    protected abstract void setup();
+
+    /**
+     * The code to be timed, which is called from many threads at once
+     * @param operation the index of the operation to run
+     * @return the result of the operation, passed on to check()
+     */
+    protected abstract Object timingIteration(int operation);
+
+    /**
+     * Checks the result of an operation, outside the timed part
+     * @param operation the index of the operation that was run
+     * @param result what timingIteration() returned
+     * @return null if the result is correct, otherwise a description of what is wrong with it
+     */
+    protected abstract String check(int operation, Object result);
+
+    /**
+     * Any settings of the test that should be written at the top of the report, such as the input file
+     * @return the settings by name, empty by default
+     */
+    protected Map<String, String> settings() {
+        return new LinkedHashMap<>();
+    }
+
+
+    /**
+     * The results of one operation
+     * @param name the name of the operation
+     * @param failures the number of calls that failed their check or threw an exception
+     * @param latencies the time every call took, in NS
+     * @param checkNanos the total time spent checking the results of the calls, in NS
+     */
+    record OperationResult(String name, long failures, Histogram latencies, long checkNanos){}
+
+    /**
+     * The results of a whole load test, which can be written out and compared with another version
+     * @param settings the settings of the test, by name
+     * @param operations the results of every operation
+     * @param callsPerSecond the number of calls started in every second of the test
+     * @param failureSamples a description of the first few failures
+     */
+    record Report(Map<String, String> settings, OperationResult[] operations, long[] callsPerSecond,
+                  List<String> failureSamples) {
+
+        /**
+         * Gets the number of calls that failed, across every operation.
+         * @return the number of failures
+         */
+        long failures() {
+            long failures = 0;
+            for(OperationResult operation : operations) {
+                failures += operation.failures();
+            }
+            return failures;
+        }
+
+        /**
+         * Writes the report as text, so the reports of two versions can be compared line by line.
+         * @return the settings, a table of latencies in microseconds, the throughput of every second, and the failures
+         */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for(var setting : settings.entrySet()) {
+                result.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+            }
+
+            result.append("\noperation, calls, failures, calls per second, mean us, p50 us, p90 us, p99 us, p99.9 us, max us, check s\n");
+            long total = 0;
+            long totalCheckNanos = 0;
+            for(OperationResult operation : operations) {
+                Histogram latencies = operation.latencies();
+                total += latencies.getCount();
+                totalCheckNanos += operation.checkNanos();
+                result.append(String.format("%s, %d, %d, %.1f, %.2f, %.2f, %.2f, %.2f, %.2f, %.2f, %.3f%n",
+                        operation.name(), latencies.getCount(), operation.failures(),
+                        latencies.getCount() / (double) callsPerSecond.length, latencies.getMean() / 1000,
+                        latencies.percentile(50) / 1000.0, latencies.percentile(90) / 1000.0,
+                        latencies.percentile(99) / 1000.0, latencies.percentile(99.9) / 1000.0,
+                        latencies.getMax() / 1000.0, operation.checkNanos() / 1e9));
+            }
+            result.append(String.format("total, %d, %d, %.1f, check s %.3f%n", total, failures(),
+                    total / (double) callsPerSecond.length, totalCheckNanos / 1e9));
+
+            result.append("\nsecond, calls\n");
+            for(int second = 0; second < callsPerSecond.length; second++) {
+                result.append(second).append(", ").append(callsPerSecond[second]).append('\n');
+            }
+
+            result.append("\nfailures\n");
+            for(String failure : failureSamples) {
+                result.append(failure).append('\n');
+            }
+            return result.toString();
+        }
+
+        /**
+         * Writes the report to a file.
+         * @param path the file to write
+         * @throws IOException if the file can't be written
+         */
+        void write(Path path) throws IOException {
+            Files.writeString(path, toString());
+        }
+    }
+
+
+    /**
+     * What one thread records, which is only merged with the other threads once they are all done,
+     * so threads never wait on each other to record a call.
+     */
+    private class Worker implements Runnable {
+
+        private final Histogram[] latencies = new Histogram[operations.length];
+        private final long[] failures = new long[operations.length];
+        private final long[] checkNanos = new long[operations.length];
+        private final long[] callsPerSecond = new long[durationSeconds];
+        private final List<String> failureSamples = new ArrayList<>();
+        private final CountDownLatch start;
+        private final long recordFrom; // the time recording starts, in NS
+        private final long recordUntil; // the time the test ends, in NS
+
+        Worker(CountDownLatch start, long recordFrom, long recordUntil) {
+            for(int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram();
+            }
+            this.start = start;
+            this.recordFrom = recordFrom;
+            this.recordUntil = recordUntil;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long startTime;
+            while((startTime = System.nanoTime()) < recordUntil) {
+                int operation = pickOperation();
+                Object result = null;
+                String problem = null;
+                try {
+                    result = timingIteration(operation);
+                } catch(RuntimeException e) {
+                    problem = e.toString();
+                }
+                long endTime = System.nanoTime();
+                if(problem == null) {
+                    problem = check(operation, result);
+                }
+                long checkEndTime = System.nanoTime();
+
+                if(startTime >= recordFrom) {
+                    latencies[operation].record(endTime - startTime);
+                    checkNanos[operation] += checkEndTime - endTime;
+                    callsPerSecond[(int) Math.min((startTime - recordFrom) / 1000000000L, durationSeconds - 1)]++;
+                    if(problem != null) {
+                        failures[operation]++;
+                        if(failureSamples.size() < FAILURE_SAMPLES)
+                            failureSamples.add(operations[operation] + ": " + problem);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Picks an operation at random, based on the weights.
+     * @return the index of the operation
+     */
+    private int pickOperation() {
+        double target = ThreadLocalRandom.current().nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int operation = 0;
+        while(operation < cumulativeWeights.length - 1 && target >= cumulativeWeights[operation]) {
+            operation++;
+        }
+        return operation;
+    }
+
+
+    /**
+     * Creates an unstarted thread, which is a virtual thread if they were asked for and the JVM has them.
+     * Virtual threads are looked up by reflection, since they only exist from Java 21.
+     * @param task what the thread runs
+     * @return the thread, or null if a virtual thread was asked for but is not available
+     */
+    private Thread newThread(Runnable task) {
+        if(!virtualThreads) {
+            return new Thread(task);
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class).invoke(builder, task);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Run the whole load test
+     * `final` means you cannot override this in a child class
+     * @return the report of the test
+     * @throws InterruptedException if the thread is interrupted while waiting for the test to finish
+     */
+    final Report run() throws InterruptedException {
+        setup();
+
+        //start every thread at the same moment, with recording starting once the warmup is over
+        CountDownLatch start = new CountDownLatch(1);
+        long startTime = System.nanoTime() + 100000000L; // leave time to create the threads
+        long recordFrom = startTime + warmupSeconds * 1000000000L;
+        long recordUntil = recordFrom + durationSeconds * 1000000000L;
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> running = new ArrayList<>();
+        String threadKind = virtualThreads ? "virtual" : "platform";
+        for(int i = 0; i < threads; i++) {
+            Worker worker = new Worker(start, recordFrom, recordUntil);
+            Thread thread = newThread(worker);
+            if(thread == null) {
+                threadKind = "platform (virtual threads need Java 21)";
+                thread = new Thread(worker);
+            }
+            workers.add(worker);
+            running.add(thread);
+            thread.start();
+        }
+        while(System.nanoTime() < startTime) {
+            Thread.onSpinWait();
+        }
+        start.countDown();
+        for(Thread thread : running) {
+            thread.join();
+        }
+
+        //merge what every thread recorded
+        Histogram[] latencies = new Histogram[operations.length];
+        long[] failures = new long[operations.length];
+        long[] checkNanos = new long[operations.length];
+        long[] callsPerSecond = new long[durationSeconds];
+        List<String> failureSamples = new ArrayList<>();
+        for(int i = 0; i < operations.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        for(Worker worker : workers) {
+            for(int i = 0; i < operations.length; i++) {
+                latencies[i].add(worker.latencies[i]);
+                failures[i] += worker.failures[i];
+                checkNanos[i] += worker.checkNanos[i];
+            }
+            for(int second = 0; second < durationSeconds; second++) {
+                callsPerSecond[second] += worker.callsPerSecond[second];
+            }
+            for(String failure : worker.failureSamples) {
+                if(failureSamples.size() < FAILURE_SAMPLES)
+                    failureSamples.add(failure);
+            }
+        }
+        OperationResult[] results = new OperationResult[operations.length];
+        for(int i = 0; i < operations.length; i++) {
+            results[i] = new OperationResult(operations[i], failures[i], latencies[i], checkNanos[i]);
+        }
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("java", System.getProperty("java.version"));
+        settings.put("processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        settings.put("threads", Integer.toString(threads));
+        settings.put("thread kind", threadKind);
+        settings.put("warmup seconds", Integer.toString(warmupSeconds));
+        settings.put("duration seconds", Integer.toString(durationSeconds));
+        settings.putAll(settings());
+        return new Report(settings, results, callsPerSecond, Collections.unmodifiableList(failureSamples));
+    }
+
+
+    /**
+     * A histogram of latencies in NS, with buckets that grow with the value so every value is
+     * kept to within about 6%, from 1 NS up to hours, in a fixed 8 KB.
+     * Each power of 2 is split into 16 buckets of the same width.
+     */
+    static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 4; // each power of 2 is split into 2^4 buckets
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS]; // the number of values in every bucket
+        private long count; // the number of values
+        private long sum; // the sum of every value
+        private long max; // the biggest value
+
+        /**
+         * Records one value.
+         * @param value the value, at least 0
+         */
+        void record(long value) {
+            counts[bucketOf(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        /**
+         * Adds every value of another histogram to this one.
+         * @param other the histogram to add
+         */
+        void add(Histogram other) {
+            for(int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Gets the value below which the given percent of values fall.
+         * @param percent the percentile, from 0 to 100
+         * @return the highest value of the bucket holding the percentile, or 0 if nothing was recorded
+         */
+        long percentile(double percent) {
+            long target = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for(int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if(seen >= target)
+                    return Math.min(lowestValueIn(bucket + 1) - 1, max);
+            }
+            return 0;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        double getMean() {
+            return (count == 0) ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Gets the bucket of a value. Values below 16 each get their own bucket, and after that
+         * the bucket is picked by the highest bit of the value and the 4 bits after it.
+         * @param value the value, at least 0
+         * @return the bucket of the value
+         */
+        private static int bucketOf(long value) {
+            if(value < SUB_BUCKETS)
+                return (int) Math.max(value, 0);
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int shift = highestBit - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         * Gets the smallest value that goes in a bucket.
+         * @param bucket the bucket
+         * @return the smallest value of the bucket, or Long.MAX_VALUE past the last bucket
+         */
+        private static long lowestValueIn(int bucket) {
+            if(bucket < SUB_BUCKETS)
+                return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            if(shift + SUB_BUCKET_BITS >= 63)
+                return Long.MAX_VALUE;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        }
+    }
+}
@@ -1,35 +1,50 @@
 package comprehensive;
 
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
  *  Represents a directed graph of word pairs with the ability to both grab
  *  the maximum frequency connection and a random connection from any node in the graph.
- *  getMax() has a big O of O(K) and getRandom() has a big O of O(K + log(K)), where K is the
- *  size of the edge list for the given vertex.
+ *  getMax() and getRandom() have a big O of O(K), where K is the number of words that
+ *  come after the given vertex.
  *  <p>
- *  The graph is represented using a HashMap of Strings mapped to ArrayLists of Edges,
- *  where each Edge contains the destination word and the number of times we see the word pair.
- *  Every edge has a weight which is defined as the frequency of the word pair / the number of edges,
- *  and this weight is used to determine a more probable random word.
+ *  Every word is given an int id the first time it's seen, and the graph is represented using a list
+ *  of successors for every id. Each successor stores the destination id and the number of times we see
+ *  the word pair, along with the total for the whole vertex. The weight of a connection is defined as the
+ *  frequency of the word pair / the total for the vertex, and it is used to determine a more probable random word.
+ *  <p>
+ *  Most words are only ever followed by a handful of others, while a few common ones are followed by
+ *  thousands, so the successors of each vertex are stored based on how many there are.
+ *  A vertex with one successor keeps it in two int fields, a vertex with up to 16 keeps small sorted
+ *  int arrays, and bigger vertexes use an open addressing hash table of ints. Vertexes are promoted
+ *  to the next representation as they grow, so addConnection() is O(log(K)) for small vertexes and O(1)
+ *  for big ones, and the long tail of rare words takes very little memory.
+ *  <p>
+ *  Once the graph is built, any number of threads can call getMax(), getRandom() and getMostProbableList()
+ *  at the same time, since none of them change the graph. Adding connections is not thread-safe.
  *
  * @author Eli Parker & Jorden Dickerson
  * @version Apr 22, 2024
  */
 public class DirectedGraph {
 
-    private HashMap<String,ArrayList<Edge>> adjList; // the adjacency list representation of the graph
-    private HashMap<String, Integer> totalEdges; // the total number of edges for each vertex
-    private Random rng; // random number generator
+    private static final int SMALL_LIMIT = 16; // the most successors a vertex keeps in sorted arrays before it is hashed
+
+    private HashMap<String, Integer> ids; // the id of every word in the graph
+    private ArrayList<String> words; // the word of every id
+    private ArrayList<Successors> adjList; // the successors of every id, or null if nothing comes after the word
 
     /**
      * Creates a new DirectedGraph object.
      */
     public DirectedGraph() {
-        this.adjList = new HashMap<>();
-        this.totalEdges = new HashMap<>();
+        this.ids = new HashMap<>();
+        this.words = new ArrayList<>();
+        this.adjList = new ArrayList<>();
     }
 
 
@@ -42,37 +57,58 @@ public class DirectedGraph {
      */
     public void addConnection(String source, String destination)
     {
-        //Checks to see if source is there
-        if(adjList.containsKey(source))
-        {
-            //gets the edge lists for that source
-            ArrayList<Edge> edges = adjList.get(source);
-            boolean found = false;
-            //iterates through edges to check for existing word pair. if the word pair exists, increase the occurrences
-            for (int i = 0; i < edges.size(); i++){
-                if (edges.get(i).getDestination().equals(destination)) {
-                    edges.get(i).increaseOccurrences();
-                    found = true;
-                    break;
-                }
-            }
-            if(!found)
-            {
-                //if pair isn't found, create a new edge pointing to the destination word
-                edges.add(new Edge(source, destination));
-            }
+        if(destination == null || source == null)
+        {
+            throw new IllegalArgumentException("Source and destination cannot be null");
         }
-        else
+        addConnection(addWord(source), addWord(destination));
+    }
+
+
+    /**
+     * Adds a connection between two words that were already added with addWord().
+     * If the connection already exists, it increases the weight of
+     * that connection relative to the other ones for the vertex.
+     * @param sourceId the id of the source node
+     * @param destinationId the id of the destination node
+     */
+    public void addConnection(int sourceId, int destinationId)
+    {
+        addConnection(sourceId, destinationId, 1);
+    }
+
+
+    /**
+     * Adds a connection between two words that were already added with addWord() a number of times at once,
+     * which is used to restore a graph from a checkpoint.
+     * @param sourceId the id of the source node
+     * @param destinationId the id of the destination node
+     * @param count the number of times the word pair was seen, at least 1
+     */
+    void addConnection(int sourceId, int destinationId, int count)
+    {
+        Successors successors = adjList.get(sourceId);
+        //the vertex might have been promoted to a bigger representation, so always store the result
+        adjList.set(sourceId, (successors == null) ? new SingleSuccessor(destinationId, count) : successors.add(destinationId, count));
+    }
+
+
+    /**
+     * Adds a word to the graph without any connections, unless it is already there.
+     * @param word the word to add
+     * @return the id of the word
+     */
+    public int addWord(String word)
+    {
+        Integer id = ids.get(word);
+        if(id == null)
         {
-            //If source isn't found, add the source to the HashMap
-            ArrayList<Edge> edges = new ArrayList<>();
-            //add the destination to the source
-            // add a new edge with the destination str & 1 occurrence
-            edges.add(new Edge(source, destination));
-            adjList.put(source, edges);
+            id = words.size();
+            ids.put(word, id);
+            words.add(word);
+            adjList.add(null);
         }
-        //increase the total number of edges
-        totalEdges.put(source, totalEdges.getOrDefault(source, 0) + 1);
+        return id;
     }
 
 
@@ -83,13 +119,28 @@ public class DirectedGraph {
      */
     public String getMax(String source)
     {
-        if(adjList.containsKey(source))
+        Successors successors = getSuccessors(source);
+        if(successors == null)
         {
-            //get the first element in the priority queue, return it
-            Edge edge = Collections.min(adjList.get(source));
-            return (edge != null) ? edge.getDestination() : "";
+            return "";
         }
-        return "";
+
+        //find the most occurrences, breaking ties lexicographically
+        int maxId = -1;
+        int maxCount = 0;
+        for(int slot = 0; slot < successors.capacity(); slot++)
+        {
+            int destinationId = successors.destinationAt(slot);
+            if(destinationId < 0)
+                continue;
+            int count = successors.countAt(slot);
+            if(count > maxCount || (count == maxCount && words.get(destinationId).compareTo(words.get(maxId)) < 0))
+            {
+                maxId = destinationId;
+                maxCount = count;
+            }
+        }
+        return words.get(maxId);
     }
 
 
@@ -100,33 +151,25 @@ public class DirectedGraph {
      */
     public String getRandom(String source)
     {
-        //if the random number generator is null, instantiate it
-        if(rng == null)
+        Successors successors = getSuccessors(source);
+        if(successors == null)
         {
-            rng = new Random();
+            return "";
         }
 
-        if(adjList.containsKey(source))
+        //pick an occurrence, then find the connection it belongs to
+        //each thread has its own generator, so many threads can pick words at once
+        int target = ThreadLocalRandom.current().nextInt(successors.total);
+        for(int slot = 0; slot < successors.capacity(); slot++)
         {
-            var sourceEdges = adjList.get(source); // get the list of edges
-            double[] prefixSum = new double[sourceEdges.size() + 1];
-            for(int i = 0; i < sourceEdges.size(); i++)
-            {
-                prefixSum[i + 1] = prefixSum[i] + sourceEdges.get(i).getWeight();
-            }
-
-            int resultIndex = Arrays.binarySearch(prefixSum, rng.nextDouble());
-            if(resultIndex < 0)
-            {
-                resultIndex = (-resultIndex) - 2;
-            }
-            else
-            {
-                resultIndex--;
-            }
-            return sourceEdges.get(resultIndex).getDestination();
+            int destinationId = successors.destinationAt(slot);
+            if(destinationId < 0)
+                continue;
+            target -= successors.countAt(slot);
+            if(target < 0)
+                return words.get(destinationId);
         }
-        return "";
+        return ""; //not reachable, the counts always add up to the total
     }
 
 
@@ -140,24 +183,20 @@ public class DirectedGraph {
     public String getMostProbableList(String source, int K)
     {
         StringBuilder result = new StringBuilder();
-        if(adjList.containsKey(source))
+        Successors successors = getSuccessors(source);
+        if(successors != null)
         {
-            var pointer = adjList.get(source); // get the list of edges
-            Collections.sort(pointer);
-
+            Integer[] slots = sortedSlots(successors);
 
             int i;
             //iterate until we go through entire list or get to K
-            for(i=0;i < pointer.size() - 1 && i < K - 1;i++)
+            for(i=0;i < slots.length - 1 && i < K - 1;i++)
             {
                 //append the destination of the edge to the result
-                result.append(pointer.get(i).getDestination()).append(" ");
-
-
+                result.append(words.get(successors.destinationAt(slots[i]))).append(" ");
             }
             //add the last element without whitespace
-            if(pointer.get(i) != null)
-                result.append(pointer.get(i).getDestination());
+            result.append(words.get(successors.destinationAt(slots[i])));
             return result.toString();
         }
         return ""; //return an empty String if there are no connections
@@ -170,88 +209,472 @@ public class DirectedGraph {
      * @return an array of strings representing the vertices in the graph
      */
     public String[] getVertexes(){
-        return this.adjList.keySet().toArray(new String[0]);
+        ArrayList<String> vertexes = new ArrayList<>(ids.size());
+        for(var entry : ids.entrySet())
+        {
+            //words that only ever come last are not vertexes
+            if(adjList.get(entry.getValue()) != null)
+                vertexes.add(entry.getKey());
+        }
+        return vertexes.toArray(new String[0]);
     }
 
 
+    /**
+     * Gets the number of words in the graph, including the ones nothing comes after.
+     * @return the number of ids that have been given out
+     */
+    int size()
+    {
+        return words.size();
+    }
 
 
+    /**
+     * Gets the word with the given id.
+     * @param id the id of the word
+     * @return the word
+     */
+    String getWord(int id)
+    {
+        return words.get(id);
+    }
 
 
     /**
-     * A class to represent an edge in the graph,
-     * containing the value of the destination vertex and the number of times we see the word pair.
-     * <p>
-     * The weight is defined as the frequency of the word pair / the number of edges.
-     * (Ex: if a word "hello" has "world", "hi", and "jim" coming after it,
-     * then "jim" would have a weight of 1/3).
+     * Gets the number of different words that come after a word.
+     * @param id the id of the word
+     * @return the number of successors, 0 if nothing comes after the word
+     */
+    int getDegree(int id)
+    {
+        Successors successors = adjList.get(id);
+        return (successors == null) ? 0 : successors.size();
+    }
+
+
+    /**
+     * Copies the successors of a word into arrays, in no particular order.
+     * @param id the id of the word
+     * @param destinations filled with the id of every successor starting at position
+     * @param counts filled with the occurrences of every successor starting at position
+     * @param position where to write the first successor
+     * @return the position after the last successor written
+     */
+    int copySuccessors(int id, int[] destinations, int[] counts, int position)
+    {
+        Successors successors = adjList.get(id);
+        if(successors == null)
+        {
+            return position;
+        }
+        for(int slot = 0; slot < successors.capacity(); slot++)
+        {
+            int destinationId = successors.destinationAt(slot);
+            if(destinationId >= 0)
+            {
+                destinations[position] = destinationId;
+                counts[position] = successors.countAt(slot);
+                position++;
+            }
+        }
+        return position;
+    }
+
+
+    /**
+     * Gets the successors of a word.
+     * @param source the word to look up
+     * @return the successors of the word, or null if the word has no connections
+     */
+    private Successors getSuccessors(String source)
+    {
+        Integer id = ids.get(source);
+        return (id != null) ? adjList.get(id) : null;
+    }
+
+
+    /**
+     * Sorts the occupied slots of a vertex by weight, then alphanumerically by destination.
+     * @param successors the successors of the vertex
+     * @return the occupied slots, from most to least probable
+     */
+    private Integer[] sortedSlots(Successors successors)
+    {
+        Integer[] slots = new Integer[successors.size()];
+        int i = 0;
+        for(int slot = 0; slot < successors.capacity(); slot++)
+        {
+            if(successors.destinationAt(slot) >= 0)
+                slots[i++] = slot;
+        }
+        Arrays.sort(slots, (a, b) -> {
+            int comparison = Integer.compare(successors.countAt(b), successors.countAt(a));
+            return comparison == 0
+                    ? words.get(successors.destinationAt(a)).compareTo(words.get(successors.destinationAt(b)))
+                    : comparison;
+        });
+        return slots;
+    }
+
+
+    /**
+     * Freezes the graph into a CompiledGraph, where every word is replaced by an int id
+     * and every edge list is sorted from most to least probable.
+     * Connections added after this call are not reflected in the returned object.
+     * @return a read-only copy of the graph that works on word ids
+     */
+    public CompiledGraph compile()
+    {
+        //build a minimal perfect hash over the words, and use the slot of each word as its id
+        byte[][] unordered = new byte[words.size()][];
+        int edgeCount = 0;
+        for(int id = 0; id < words.size(); id++)
+        {
+            unordered[id] = words.get(id).getBytes(StandardCharsets.UTF_8);
+            if(adjList.get(id) != null)
+                edgeCount += adjList.get(id).size();
+        }
+        VocabularyIndex index = VocabularyIndex.build(unordered);
+        int[] newIds = new int[unordered.length];
+        int[] oldIds = new int[unordered.length];
+        byte[][] encodedWords = new byte[unordered.length][];
+        for(int id = 0; id < unordered.length; id++)
+        {
+            newIds[id] = index.slotOf(unordered[id], 0, unordered[id].length);
+            oldIds[newIds[id]] = id;
+            encodedWords[newIds[id]] = unordered[id];
+        }
+
+        //lay every edge list out one after another, most probable first
+        int[] offsets = new int[unordered.length + 1];
+        int[] successors = new int[edgeCount];
+        int[] cumulativeCounts = new int[edgeCount];
+        int position = 0;
+        for(int newId = 0; newId < unordered.length; newId++)
+        {
+            offsets[newId] = position;
+            Successors vertex = adjList.get(oldIds[newId]);
+            if(vertex != null)
+            {
+                int total = 0;
+                for(int slot : sortedSlots(vertex))
+                {
+                    total += vertex.countAt(slot);
+                    successors[position] = newIds[vertex.destinationAt(slot)];
+                    cumulativeCounts[position] = total;
+                    position++;
+                }
+            }
+        }
+        offsets[unordered.length] = position;
+
+        return new CompiledGraph(encodedWords, index, offsets, successors, cumulativeCounts);
+    }
+
+
+
+
+
+
+    /**
+     * The successors of one vertex: the destination ids, how many times each word pair was seen,
+     * and the total for the whole vertex.
      * <p>
-     * Edge objects are compared by weight, then alphanumerically.
-     * @author Eli Parker & Jorden Dickerson
-     * @version Apr 16, 2024
+     * The successors are read through slots from 0 to capacity() - 1, where empty slots have a destination of -1,
+     * so every representation can be walked the same way without creating an iterator.
      */
-    private class Edge implements Comparable<Edge> {
+    private abstract static class Successors {
+
+        int total; // the total number of occurrences of every word pair starting at this vertex
+
+        /**
+         * Adds occurrences of the word pair going to the destination.
+         * @param destination the id of the destination
+         * @param count the number of occurrences to add
+         * @return this object, or a bigger representation holding the same successors if this one is full
+         */
+        abstract Successors add(int destination, int count);
+
+        /**
+         * Gets the number of different destinations.
+         * @return the number of successors
+         */
+        abstract int size();
+
+        /**
+         * Gets the number of slots, including empty ones.
+         * @return the number of slots to walk through
+         */
+        abstract int capacity();
+
+        /**
+         * Gets the destination in a slot.
+         * @param slot the slot from 0 to capacity() - 1
+         * @return the id of the destination, or -1 if the slot is empty
+         */
+        abstract int destinationAt(int slot);
+
+        /**
+         * Gets the occurrences of the word pair in a slot.
+         * @param slot an occupied slot from 0 to capacity() - 1
+         * @return the number of times the word pair was seen
+         */
+        abstract int countAt(int slot);
+    }
 
 
-        private final String destination; // the connection's destination
-        private int occurrences; // number of times we see the word pair
-        private final String source; // saves a pointer to the parent list for weight calculation
+    /**
+     * A vertex with one successor, stored in plain fields.
+     */
+    private static class SingleSuccessor extends Successors {
 
+        private final int destination; // the id of the only destination
 
         /**
-         * Creates a new Edge object with 1 occurrence
-         * @param destination the destination node
+         * Creates a new SingleSuccessor object.
+         * @param destination the id of the destination
+         * @param count the occurrences of the destination
          */
-        public Edge(String source, String destination)
+        SingleSuccessor(int destination, int count)
+        {
+            this.destination = destination;
+            this.total = count;
+        }
+
+        @Override
+        Successors add(int destination, int count)
         {
-            if(destination == null || source == null)
+            if(destination == this.destination)
             {
-                throw new IllegalArgumentException("Source and destination cannot be null");
+                total += count;
+                return this;
             }
-            this.source = source;
-            this.destination = destination;
-            this.occurrences = 1;
+            //a second destination, move to sorted arrays
+            SmallSuccessors promoted = new SmallSuccessors(this.destination, total);
+            return promoted.add(destination, count);
         }
 
+        @Override
+        int size()
+        {
+            return 1;
+        }
+
+        @Override
+        int capacity()
+        {
+            return 1;
+        }
+
+        @Override
+        int destinationAt(int slot)
+        {
+            return destination;
+        }
+
+        @Override
+        int countAt(int slot)
+        {
+            return total;
+        }
+    }
+
+
+    /**
+     * A vertex with a few successors, stored in int arrays sorted by destination id.
+     */
+    private static class SmallSuccessors extends Successors {
+
+        private int[] destinations = new int[4]; // the destination ids, sorted
+        private int[] counts = new int[4]; // the occurrences of the destination at the same index
+        private int size; // the number of destinations
 
         /**
-         * Gets the destination of the edge object.
-         * @return a string which is the destination of the edge
+         * Creates a new SmallSuccessors object from the successor of a SingleSuccessor.
+         * @param destination the id of the first destination
+         * @param count the occurrences of the first destination
          */
-        public String getDestination()
+        SmallSuccessors(int destination, int count)
         {
-            return this.destination;
+            destinations[0] = destination;
+            counts[0] = count;
+            size = 1;
+            total = count;
         }
 
+        @Override
+        Successors add(int destination, int count)
+        {
+            int index = Arrays.binarySearch(destinations, 0, size, destination);
+            if(index >= 0)
+            {
+                counts[index] += count;
+                total += count;
+                return this;
+            }
+            if(size == SMALL_LIMIT)
+            {
+                //too many to keep searching and shifting, move to a hash table
+                HashedSuccessors promoted = new HashedSuccessors(this);
+                return promoted.add(destination, count);
+            }
+
+            //shift the bigger ids over to keep the arrays sorted
+            index = -index - 1;
+            if(size == destinations.length)
+            {
+                destinations = Arrays.copyOf(destinations, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(destinations, index, destinations, index + 1, size - index);
+            System.arraycopy(counts, index, counts, index + 1, size - index);
+            destinations[index] = destination;
+            counts[index] = count;
+            size++;
+            total += count;
+            return this;
+        }
+
+        @Override
+        int size()
+        {
+            return size;
+        }
+
+        @Override
+        int capacity()
+        {
+            return size;
+        }
+
+        @Override
+        int destinationAt(int slot)
+        {
+            return destinations[slot];
+        }
+
+        @Override
+        int countAt(int slot)
+        {
+            return counts[slot];
+        }
+    }
+
+
+    /**
+     * A vertex with many successors, stored in an open addressing hash table of ints with linear probing.
+     */
+    private static class HashedSuccessors extends Successors {
+
+        private int[] destinations; // the destination ids, or -1 for an empty slot
+        private int[] counts; // the occurrences of the destination in the same slot
+        private int size; // the number of destinations
 
         /**
-         * Gets the number of times we see the edge object.
-         * @return a double which is the occurrences of the edge
+         * Creates a new HashedSuccessors object holding the successors of a full SmallSuccessors.
+         * @param small the vertex to promote
          */
-        public double getWeight()
+        HashedSuccessors(SmallSuccessors small)
+        {
+            destinations = new int[SMALL_LIMIT * 4];
+            counts = new int[SMALL_LIMIT * 4];
+            Arrays.fill(destinations, -1);
+            for(int i = 0; i < small.size; i++)
+            {
+                put(small.destinations[i], small.counts[i]);
+            }
+            total = small.total;
+        }
+
+        @Override
+        Successors add(int destination, int count)
         {
-            return (double) occurrences / totalEdges.get(source);
+            int mask = destinations.length - 1;
+            int slot = slotOf(destination, mask);
+            while(destinations[slot] >= 0)
+            {
+                if(destinations[slot] == destination)
+                {
+                    counts[slot] += count;
+                    total += count;
+                    return this;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            //keep the table at most half full so probes stay short
+            if((size + 1) * 2 > destinations.length)
+            {
+                int[] oldDestinations = destinations;
+                int[] oldCounts = counts;
+                destinations = new int[oldDestinations.length * 2];
+                counts = new int[oldDestinations.length * 2];
+                Arrays.fill(destinations, -1);
+                size = 0;
+                for(int i = 0; i < oldDestinations.length; i++)
+                {
+                    if(oldDestinations[i] >= 0)
+                        put(oldDestinations[i], oldCounts[i]);
+                }
+            }
+            put(destination, count);
+            total += count;
+            return this;
         }
+
         /**
-         * Increases the number of occurrences of the edge object by 1.
+         * Puts a destination that isn't in the table yet into the first free slot.
+         * @param destination the id of the destination
+         * @param count the occurrences of the destination
          */
-        public void increaseOccurrences()
+        private void put(int destination, int count)
         {
-            occurrences++;
+            int mask = destinations.length - 1;
+            int slot = slotOf(destination, mask);
+            while(destinations[slot] >= 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            destinations[slot] = destination;
+            counts[slot] = count;
+            size++;
         }
 
-
         /**
-         * Compares the edge object to another edge object by weight, then alphanumerically.
-         * @param edge the object to be compared.
-         * @return a negative integer, zero, or a positive integer if this object is less than, equal to, or greater than the specified object respectively.
+         * Gets the first slot to probe for a destination.
+         * @param destination the id of the destination
+         * @param mask the table size - 1
+         * @return the slot to start at
          */
+        private static int slotOf(int destination, int mask)
+        {
+            int hash = destination * 0x9e3779b9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
         @Override
-        public int compareTo(Edge edge)
+        int size()
         {
-            int comparison = Double.compare(edge.getWeight(), this.getWeight());
-            return comparison == 0 ? this.getDestination().compareTo(edge.getDestination()) : comparison;
+            return size;
+        }
+
+        @Override
+        int capacity()
+        {
+            return destinations.length;
+        }
+
+        @Override
+        int destinationAt(int slot)
+        {
+            return destinations[slot];
+        }
+
+        @Override
+        int countAt(int slot)
+        {
+            return counts[slot];
         }
     }
 }
-
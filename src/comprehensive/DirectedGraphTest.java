@@ -71,4 +71,189 @@ class DirectedGraphTest {
         System.out.println("weight one (expected 1/6%): "   + probablilityThird );
     }
 
+    @org.junit.jupiter.api.Test
+    void testGrowingVertex()
+    {
+        //the vertex goes from one successor, to sorted arrays, to a hash table as it grows
+        for(int i = 99; i >= 0; i--)
+        {
+            for(int j = 0; j <= i / 10; j++)
+            {
+                graph.addConnection("hub", "w" + i);
+            }
+            if(i == 99)
+                assertEquals("w99", graph.getMostProbableList("hub", 5));
+            if(i == 90)
+                assertEquals("w90 w91 w92 w93 w94", graph.getMostProbableList("hub", 5));
+        }
+        assertEquals("w90", graph.getMax("hub"));
+        assertEquals("w90 w91 w92 w93 w94 w95 w96 w97 w98 w99 w80", graph.getMostProbableList("hub", 11));
+        assertEquals(100, graph.getMostProbableList("hub", 1000).split(" ").length);
+        assertTrue(graph.getRandom("hub").startsWith("w"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testCompile()
+    {
+        var compiled = graph.compile();
+        assertEquals(6, compiled.size()); // "world" and "johnny" never come first but still get ids
+        assertEquals(-1, compiled.getId("nope"));
+
+        //the most probable successor matches the String graph, and words without successors give -1
+        assertEquals("its", compiled.getWord(compiled.getMax(compiled.getId("hello"))));
+        assertEquals(-1, compiled.getMax(compiled.getId("world")));
+
+        //random successors only ever come from the edge list
+        for(int i = 0; i < 1000; i++)
+        {
+            var random = compiled.getWord(compiled.getRandom(compiled.getId("its")));
+            assertTrue("me".equals(random) || "johnny".equals(random));
+        }
+
+        //walking past a word without successors goes back to the seed
+        int[] path = new int[5];
+        compiled.walk(compiled.getId("me"), path, true);
+        assertEquals("me world me world me", new String(compiled.decode(path)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testReverse()
+    {
+        var reverse = graph.compile().reverse();
+        assertEquals("hello me", reverse.getMostProbableList(reverse.getId("world"), 5));
+        assertEquals("its", reverse.getMostProbableList(reverse.getId("johnny"), 5));
+        assertEquals(-1, reverse.getMax(reverse.getId("hello"))); // nothing comes before "hello"
+
+        //walking backwards from "world" goes back to it once there are no more predecessors
+        int[] path = new int[4];
+        reverse.walk(reverse.getId("world"), path, true);
+        assertEquals("world hello world hello", new String(reverse.decode(path)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testExport() throws java.io.IOException
+    {
+        var compiled = graph.compile();
+        var out = new java.io.ByteArrayOutputStream();
+        new GraphExporter(compiled, GraphExporter.Format.TSV).export(java.nio.channels.Channels.newChannel(out));
+        var lines = out.toString().split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(out.toString().contains("hello\tits\t3\nhello\tworld\t2\nhello\tthird\t1\n"));
+        assertTrue(java.util.Arrays.asList(lines).containsAll(java.util.List.of("its\tjohnny\t1", "its\tme\t1", "me\tworld\t1")));
+
+        //one record per word, with ids that point back into the records
+        out.reset();
+        new GraphExporter(compiled, GraphExporter.Format.BINARY).export(java.nio.channels.Channels.newChannel(out));
+        var in = java.nio.ByteBuffer.wrap(out.toByteArray());
+        in.getInt();
+        assertEquals(6, in.getInt());
+        assertEquals(6, in.getInt());
+        var successors = new java.util.HashMap<String, String>();
+        var words = new String[6];
+        var records = new java.util.ArrayList<int[]>();
+        for(int id = 0; id < words.length; id++)
+        {
+            var word = new byte[in.getInt()];
+            in.get(word);
+            words[id] = new String(word, java.nio.charset.StandardCharsets.UTF_8);
+            var record = new int[in.getInt() * 2];
+            for(int i = 0; i < record.length; i++)
+            {
+                record[i] = in.getInt();
+            }
+            records.add(record);
+        }
+        assertFalse(in.hasRemaining());
+        for(int id = 0; id < words.length; id++)
+        {
+            assertEquals(compiled.getWord(id), words[id]);
+            var list = new StringBuilder();
+            for(int i = 0; i < records.get(id).length; i += 2)
+            {
+                list.append(words[records.get(id)[i]]).append(' ').append(records.get(id)[i + 1]).append(' ');
+            }
+            successors.put(words[id], list.toString().trim());
+        }
+        assertEquals("its 3 world 2 third 1", successors.get("hello"));
+        assertEquals("world 1", successors.get("me"));
+        assertEquals("", successors.get("johnny"));
+
+        //quotes and control characters inside words are escaped in JSON
+        graph.addConnection("its", "a\tb\"\u0001");
+        out.reset();
+        new GraphExporter(graph.compile(), GraphExporter.Format.JSON_LINES).export(java.nio.channels.Channels.newChannel(out));
+        lines = out.toString(java.nio.charset.StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(java.util.Arrays.asList(lines).contains(
+                "{\"word\":\"its\",\"total\":3,\"successors\":[[\"a\\u0009b\\\"\\u0001\",1],[\"johnny\",1],[\"me\",1]]}"));
+        assertTrue(java.util.Arrays.asList(lines).contains(
+                "{\"word\":\"hello\",\"total\":6,\"successors\":[[\"its\",3],[\"world\",2],[\"third\",1]]}"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testVocabularyIndex()
+    {
+        //every word gets its own slot, with no slot left empty
+        var words = new byte[1000][];
+        for(int i = 0; i < words.length; i++)
+        {
+            words[i] = ("word" + i).getBytes();
+        }
+        var index = VocabularyIndex.build(words);
+        var taken = new boolean[words.length];
+        for(var word : words)
+        {
+            int slot = index.slotOf(word, 0, word.length);
+            assertFalse(taken[slot]);
+            taken[slot] = true;
+        }
+
+        //a word given twice can never be placed, so it is turned down
+        words[500] = "word7".getBytes();
+        assertThrows(IllegalArgumentException.class, () -> VocabularyIndex.build(words));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testSaveAndLoad() throws java.io.IOException
+    {
+        var compiled = graph.compile();
+        var file = java.nio.file.Files.createTempFile("graph", ".bin");
+        compiled.save(file.toString());
+        var loaded = CompiledGraph.load(file.toString());
+        java.nio.file.Files.delete(file);
+
+        assertEquals(compiled.size(), loaded.size());
+        for(var word : new String[]{"hello", "its", "me", "world", "johnny", "third"})
+        {
+            assertEquals(compiled.getId(word), loaded.getId(word));
+            assertEquals(word, loaded.getWord(loaded.getId(word)));
+        }
+        assertEquals(-1, loaded.getId("nope"));
+        assertEquals("its world third", loaded.getMostProbableList(loaded.getId("hello"), 5));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testLoadOtherByteOrder() throws java.io.IOException
+    {
+        //a model file written on a machine with the other byte order has every number swapped
+        var compiled = graph.compile();
+        var file = java.nio.file.Files.createTempFile("graph", ".bin");
+        compiled.save(file.toString());
+        var bytes = java.nio.ByteBuffer.wrap(java.nio.file.Files.readAllBytes(file)).order(java.nio.ByteOrder.nativeOrder());
+        int wordsStart = 24 + 4 * bytes.getInt(20) + 8 * (bytes.getInt(4) + 1) + 8 * bytes.getInt(8);
+        bytes.putLong(12, Long.reverseBytes(bytes.getLong(12)));
+        for(int position = 0; position < wordsStart; position += (position == 12) ? 8 : 4)
+        {
+            if(position != 12)
+                bytes.putInt(position, Integer.reverseBytes(bytes.getInt(position)));
+        }
+        java.nio.file.Files.write(file, bytes.array());
+
+        var loaded = CompiledGraph.load(file.toString());
+        java.nio.file.Files.delete(file);
+        assertEquals(compiled.size(), loaded.size());
+        assertEquals("its world third", loaded.getMostProbableList(loaded.getId("hello"), 5));
+        assertEquals("johnny me", loaded.getMostProbableList(loaded.getId("its"), 5));
+    }
+
 }
\ No newline at end of file
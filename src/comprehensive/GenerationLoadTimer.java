@@ -0,0 +1,192 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load tests one GenerativeModel shared by many threads, each calling a mix of "all" generation,
+ * "one" generation and the K most probable words, the three things TextGenerator can be asked for.
+ * <p>
+ * Every result is checked against a second copy of the model that only this class's setup ever touches:
+ * "one" and the top K words always give the same answer, so they must match what the copy gave before
+ * the test started, and every pair of words next to each other in "all" text must be a real word pair
+ * (or a word with nothing after it, followed by the seed the walk starts over from).
+ * <p>
+ * Command line arguments are all optional:
+ * <p>
+ * - 1st arg: file path of the text or model file to load (src/warAndPeace.txt)
+ * <p>
+ * - 2nd arg: the number of threads (twice the number of processors)
+ * <p>
+ * - 3rd arg: the number of seconds to record for, after a 2 second warmup (10)
+ * <p>
+ * - 4th arg: "platform" or "virtual" threads (platform)
+ * <p>
+ * - 5th arg: a file to write the report to, as well as printing it
+ */
+public class GenerationLoadTimer extends ConcurrentTimerTemplate {
+
+    private static final String[] OPERATIONS = {"all", "one", "top-k"};
+    private static final double[] WEIGHTS = {0.45, 0.45, 0.10};
+    private static final int SEEDS = 500; // the number of different seed words used
+    private static final int WORDS = 20; // the number of words generated per call
+    private static final int K = 10; // the number of words asked for by top-k
+
+    private final String filePath;
+    private final GenerativeModel model; // the model shared by every thread
+    private final GenerativeModel reference; // a separate copy used to check results
+    private CompiledGraph referenceGraph; // the compiled graph of the copy, which "all" text is checked against by id
+    private String[] seeds;
+    private int[] seedIds; // the id of every seed in referenceGraph
+    private String[] expectedOne; // the "one" text of every seed
+    private String[] expectedTopK; // the top K words of every seed
+
+    /**
+     * The result of one call, along with the seed it was for.
+     * @param seed the index of the seed word
+     * @param text what the model returned
+     */
+    private record Call(int seed, String text){}
+
+    /**
+     * Create a load test
+     * @param filePath the text or model file to load
+     * @param threads the number of threads calling the model at once
+     * @param virtualThreads true to use virtual threads
+     * @param durationSeconds how long to record for
+     * @throws IOException if the file can't be read
+     */
+    public GenerationLoadTimer(String filePath, int threads, boolean virtualThreads, int durationSeconds) throws IOException {
+        super(OPERATIONS, WEIGHTS, threads, virtualThreads, 2, durationSeconds);
+        this.filePath = filePath;
+        this.model = GenerativeModel.open(filePath);
+        this.reference = GenerativeModel.open(filePath);
+    }
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String filePath = (args.length > 0) ? args[0] : "src/warAndPeace.txt";
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        boolean virtualThreads = args.length > 3 && args[3].equals("virtual");
+
+        var report = new GenerationLoadTimer(filePath, threads, virtualThreads, seconds).run();
+        System.out.print(report);
+        if(args.length > 4) {
+            report.write(Path.of(args[4]));
+        }
+        if(report.failures() > 0) {
+            System.exit(1);
+        }
+    }
+
+
+    @Override
+    protected void setup() {
+        //pick seeds the same way every time, from words that have something after them
+        referenceGraph = reference.getCompiledGraph();
+        ArrayList<Integer> vertexes = new ArrayList<>();
+        for(int id = 0; id < referenceGraph.size(); id++) {
+            if(referenceGraph.getDegree(id) > 0)
+                vertexes.add(id);
+        }
+        Random random = new Random(42);
+        seeds = new String[Math.min(SEEDS, vertexes.size())];
+        seedIds = new int[seeds.length];
+        expectedOne = new String[seeds.length];
+        expectedTopK = new String[seeds.length];
+        for(int i = 0; i < seeds.length; i++) {
+            seedIds[i] = vertexes.get(random.nextInt(vertexes.size()));
+            seeds[i] = referenceGraph.getWord(seedIds[i]);
+            expectedOne[i] = reference.generate(seeds[i], WORDS, "one");
+            expectedTopK[i] = reference.getMostProbableWords(seeds[i], K);
+        }
+        //build the pair table now, so checking "all" text never waits on it
+        referenceGraph.getCount(seedIds[0], seedIds[0]);
+    }
+
+
+    @Override
+    protected Object timingIteration(int operation) {
+        int seed = ThreadLocalRandom.current().nextInt(seeds.length);
+        switch(operation) {
+            case 0:
+                return new Call(seed, model.generate(seeds[seed], WORDS, "all"));
+            case 1:
+                return new Call(seed, model.generate(seeds[seed], WORDS, "one"));
+            default:
+                return new Call(seed, model.getMostProbableWords(seeds[seed], K));
+        }
+    }
+
+
+    @Override
+    protected String check(int operation, Object result) {
+        Call call = (Call) result;
+        switch(operation) {
+            case 0:
+                return checkWalk(call.seed(), call.text());
+            case 1:
+                return call.text().equals(expectedOne[call.seed()]) ? null
+                        : "expected \"" + expectedOne[call.seed()] + "\" but got \"" + call.text() + "\"";
+            default:
+                return call.text().equals(expectedTopK[call.seed()]) ? null
+                        : "expected \"" + expectedTopK[call.seed()] + "\" but got \"" + call.text() + "\"";
+        }
+    }
+
+
+    /**
+     * Checks that random text starts with the seed, has the right length, and only ever goes along real word pairs.
+     * The words are looked up as ids in the reference graph straight from the bytes of the text,
+     * so the check needs no regex, no formatting and no locks.
+     * @param seed the index of the seed word
+     * @param text the generated text
+     * @return null if the text is possible, otherwise what is wrong with it
+     */
+    private String checkWalk(int seed, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int words = 0;
+        int previousId = -1;
+        for(int from = 0; from <= bytes.length; words++) {
+            int to = from;
+            while(to < bytes.length && bytes[to] != ' ') {
+                to++;
+            }
+            int id = referenceGraph.getId(bytes, from, to);
+            if(words == 0 ? id != seedIds[seed] : id < 0) {
+                return "\"" + text + "\" doesn't start with " + seeds[seed] + " or has a word that isn't in the model";
+            }
+            if(words > 0) {
+                boolean isPair = referenceGraph.getCount(previousId, id) > 0;
+                //a word with nothing after it sends the walk back to the seed
+                boolean isRestart = id == seedIds[seed] && referenceGraph.getDegree(previousId) == 0;
+                if(!isPair && !isRestart) {
+                    return "\"" + referenceGraph.getWord(previousId) + " " + referenceGraph.getWord(id)
+                            + "\" is not a word pair, in \"" + text + "\"";
+                }
+            }
+            previousId = id;
+            from = to + 1;
+        }
+        return (words == WORDS) ? null : "\"" + text + "\" doesn't have " + WORDS + " words";
+    }
+
+
+    @Override
+    protected Map<String, String> settings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("file", filePath);
+        settings.put("mix", "all " + WEIGHTS[0] + ", one " + WEIGHTS[1] + ", top-k " + WEIGHTS[2]);
+        settings.put("seeds", Integer.toString(seeds.length));
+        settings.put("words per call", Integer.toString(WORDS));
+        settings.put("K", Integer.toString(K));
+        return settings;
+    }
+}
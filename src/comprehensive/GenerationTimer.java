@@ -0,0 +1,86 @@
+package comprehensive;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Times text generation on War and Peace, comparing the String based walk over the DirectedGraph
+ * with the id based walk over the CompiledGraph. Printing is left out of both so only the walk
+ * and the building of the output are timed. Results are reported in words per second.
+ */
+public class GenerationTimer extends TimerTemplate {
+
+    private final DirectedGraph graph;
+    private final CompiledGraph compiled;
+    private final boolean useCompiled;
+    private final boolean mostProbable;
+    private static final String seed = "the";
+
+    /**
+     * Create a timer
+     *
+     * @param problemSizes array of N's to use (number of words to generate)
+     * @param timesToLoop  number of times to repeat the tests
+     * @param graph the graph to generate text from
+     * @param useCompiled true to time the CompiledGraph walk, false to time the DirectedGraph walk
+     * @param mostProbable true for the "one" generation type, false for "all"
+     */
+    public GenerationTimer(int[] problemSizes, int timesToLoop, DirectedGraph graph, boolean useCompiled, boolean mostProbable) {
+        super(problemSizes, timesToLoop);
+        this.graph = graph;
+        this.compiled = graph.compile();
+        this.useCompiled = useCompiled;
+        this.mostProbable = mostProbable;
+    }
+
+
+    public static void main(String[] args) throws FileNotFoundException {
+        DirectedGraph graph = new GenerativeModel("src/warAndPeace.txt").getDirectedGraph();
+        int[] problemSizes = {1000, 10000, 100000};
+
+        System.out.println("type, walk, n, words per second");
+        for(boolean mostProbable : new boolean[]{true, false}) {
+            for(boolean useCompiled : new boolean[]{false, true}) {
+                var timer = new GenerationTimer(problemSizes, 20, graph, useCompiled, mostProbable);
+                for(var result : timer.run()) {
+                    System.out.println((mostProbable ? "one" : "all") + ", " + (useCompiled ? "ids" : "strings") + ", "
+                            + result.n() + ", " + (long) (result.n() / (result.avgNanoSecs() / 1e9)));
+                }
+            }
+        }
+    }
+
+
+    @Override
+    protected void setup(int n) {
+
+    }
+
+
+    @Override
+    protected void timingIteration(int n)
+    {
+        if(useCompiled) {
+            int[] path = new int[n];
+            compiled.walk(compiled.getId(seed), path, mostProbable);
+            compiled.decode(path);
+        }
+        else {
+            //the walk GenerativeModel used before the CompiledGraph
+            StringBuilder result = new StringBuilder();
+            String curWord = GenerativeModel.formatWord(seed);
+            for(int i = 0; i < n - 1; i++) {
+                result.append(curWord).append(" ");
+                curWord = mostProbable ? graph.getMax(curWord) : graph.getRandom(curWord);
+                if(curWord.isEmpty())
+                    curWord = GenerativeModel.formatWord(seed);
+            }
+            result.append(curWord);
+            result.toString();
+        }
+    }
+
+    @Override
+    protected void compensationIteration(int n) {
+
+    }
+}
@@ -2,10 +2,23 @@ package comprehensive;
 
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 
 /**
@@ -23,22 +36,172 @@ public class GenerativeModel
     //The adjacency list representation of the graph
     private DirectedGraph graph;
 
+    //the id based copy of the graph used for generation, created the first time it's needed
+    //volatile so threads can read it without taking the lock once it has been built
+    private volatile CompiledGraph compiledGraph;
+
+    //the compiled graph with every edge reversed, used for predecessor queries and created the first time it's needed
+    private volatile CompiledGraph reverseGraph;
+
     //to use to remove bad formatting from words
     private static final Pattern regexPattern = Pattern.compile("[^\\w\\s]");
 
+    //reads 8 bytes of a byte array as one long, so 8 characters can be checked at once (SWAR)
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    //a byte with the given value in each of the 8 bytes of a long, and the high bit of every byte
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    //true for every ASCII character formatWord() keeps: letters, digits, underscores and whitespace (the regex's \w and \s)
+    private static final boolean[] WORD_CHARACTERS = new boolean[128];
+    static
+    {
+        for(int c = 0; c < 128; c++)
+        {
+            WORD_CHARACTERS[c] = Character.isLetterOrDigit(c) || c == '_' || (c >= '\t' && c <= '\r') || c == ' ';
+        }
+    }
+
+    //the number of lines read from a file before they are scored together in parallel
+    private static final int SCORE_BATCH_LINES = 8192;
+
+    //marks that no word has been read yet when scoring, since -1 already means a word that isn't in the graph
+    private static final int NO_WORD = -2;
+
+    //the arrays toIds() splits and formats lines into, kept per thread so scoring a line doesn't allocate them
+    private static final ThreadLocal<LineScratch> LINE_SCRATCH = ThreadLocal.withInitial(LineScratch::new);
+
+    /**
+     * The scratch arrays of one thread, which only ever grow to fit the longest line it has seen.
+     */
+    private static final class LineScratch
+    {
+        int[] ends = new int[0]; // the end of every word of the line
+        byte[] word = new byte[0]; // the formatted bytes of one word
+        int[] ids = new int[0]; // the id of every word kept so far
+
+        /**
+         * Makes sure the arrays can hold a line of the given length.
+         * @param length the number of characters in the line
+         */
+        void fit(int length)
+        {
+            //a line has at most one more word than it has characters, and no word is longer than the line
+            if(ends.length <= length)
+            {
+                int capacity = Math.max(length + 1, ends.length * 2);
+                ends = new int[capacity];
+                word = new byte[capacity];
+                ids = new int[capacity];
+            }
+        }
+    }
+
+    /**
+     * The result of scoring a text with the model.
+     * @param logProbabilities the natural log of P(word | previous word) for every word after the first one
+     * @param logLikelihood the sum of all the log probabilities
+     * @param perplexity e to the power of the negative average log probability, or NaN if there were no word pairs
+     */
+    public record Score(double[] logProbabilities, double logLikelihood, double perplexity){}
+
     /**
      * Creates a new GenerativeModel object, initializes the graph
      * and fills it with the words from the given file.
+     * @throws FileNotFoundException if the file doesn't exist
+     * @throws UncheckedIOException if the file exists but can't be read
      */
     public GenerativeModel(String filePath) throws FileNotFoundException
     {
         //initialize the graph by calling a helper method
         graph = new DirectedGraph();
         try {
-            createGraph(filePath);
+            createGraph(filePath, null, 0);
+        } catch (FileNotFoundException e) {
+            throw e;
         } catch (IOException e) {
-            throw new FileNotFoundException("File not found");
+            //keep the old signature, but don't pretend a failed read means the file is missing
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Creates a new GenerativeModel object from the given file, saving a checkpoint of the graph every
+     * checkpointLines lines so a long training run that fails can be resumed instead of starting over.
+     * <p>
+     * If the checkpoint file already exists, training picks up from it and ends with exactly the same graph
+     * as a run that never stopped. Checkpoints are written on a background thread, and if one is still being
+     * written when the next is due, the next one is skipped so training never waits on the disk.
+     * A last checkpoint is written once the whole file is read, so training can also be continued after
+     * more text is added to the end of the file.
+     * @param filePath the path of the text file to train on
+     * @param checkpointPath the path of the checkpoint file to resume from and write to
+     * @param checkpointLines the number of lines between checkpoints, at least 1
+     * @throws FileNotFoundException if the text file doesn't exist
+     * @throws IOException if a file can't be read or written, or the checkpoint was made from a different text file
+     */
+    public GenerativeModel(String filePath, String checkpointPath, long checkpointLines) throws IOException
+    {
+        if(checkpointLines < 1)
+        {
+            throw new IllegalArgumentException("checkpointLines must be at least 1");
         }
+        graph = new DirectedGraph();
+        createGraph(filePath, Path.of(checkpointPath), checkpointLines);
+    }
+
+
+    /**
+     * Creates a new GenerativeModel object around an already compiled graph.
+     * @param compiledGraph the graph to generate text from
+     */
+    private GenerativeModel(CompiledGraph compiledGraph)
+    {
+        this.compiledGraph = compiledGraph;
+    }
+
+
+    /**
+     * Loads a model that was saved with {@link #save(String)}, without parsing any text.
+     * The file is memory-mapped, so only the parts a query needs are ever read from disk.
+     * @param filePath the path of the model file
+     * @return the loaded model
+     * @throws IOException if the file can't be read or is not a model file
+     */
+    public static GenerativeModel load(String filePath) throws IOException
+    {
+        return new GenerativeModel(CompiledGraph.load(filePath));
+    }
+
+
+    /**
+     * Opens either a model file saved with {@link #save(String)} or a text file to train on,
+     * depending on whether the file starts with the model file's magic number.
+     * @param filePath the path of the model or text file
+     * @return the opened model
+     * @throws FileNotFoundException if the file doesn't exist
+     * @throws IOException if the file can't be read
+     */
+    public static GenerativeModel open(String filePath) throws IOException
+    {
+        if(CompiledGraph.isModelFile(filePath))
+        {
+            return load(filePath);
+        }
+        return new GenerativeModel(filePath);
+    }
+
+
+    /**
+     * Saves the compiled graph of the model, along with its vocabulary index, to a binary model file.
+     * @param filePath the path of the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(String filePath) throws IOException
+    {
+        getCompiledGraph().save(filePath);
     }
 
 
@@ -52,24 +215,91 @@ public class GenerativeModel
      * @throws IllegalArgumentException if the generation type is not "all" or "one"
      */
     public void generateText(String seed, int numOfWordsToGenerate, String generationType)
+    {
+        System.out.println(generate(seed, numOfWordsToGenerate, generationType));
+    }
+
+
+    /**
+     * Generates text the same way as generateText(), but returns it instead of printing it.
+     * Any number of threads can call this on the same model at once.
+     * @param seed the seed word to generate text from
+     * @param numOfWordsToGenerate the number of words to generate
+     * @param generationType the type of generation to use, must be either "all" or "one"
+     * @return the generated words separated by spaces
+     * @throws IllegalArgumentException if the generation type is not "all" or "one"
+     */
+    public String generate(String seed, int numOfWordsToGenerate, String generationType)
     {
         //switch on the generation type
         switch(generationType.toLowerCase())
         {
             case "all":
                 //generate random text
-                generateRandomText(seed, numOfWordsToGenerate);
-                break;
+                return generateRandomText(seed, numOfWordsToGenerate);
             case "one":
                 //generate the most probable text
-                generateMostProbableText(seed, numOfWordsToGenerate);
-                break;
+                return generateMostProbableText(seed, numOfWordsToGenerate);
             default:
                 //generation type is invalid, throw an exception
                 throw new IllegalArgumentException("Invalid generation type");
         }
     }
 
+    /**
+     * Generates text that ends with the given word, by walking backwards through the words that come before it.
+     * This works like the 4 command-line argument case, except the given word is the last word of the output.
+     * @param end the word the generated text should end with
+     * @param numOfWordsToGenerate the number of words to generate
+     * @param generationType the type of generation to use, must be either "all" or "one"
+     * @throws IllegalArgumentException if the generation type is not "all" or "one"
+     */
+    public void generateTextBackward(String end, int numOfWordsToGenerate, String generationType)
+    {
+        System.out.println(generateBackward(end, numOfWordsToGenerate, generationType));
+    }
+
+
+    /**
+     * Generates text the same way as generateTextBackward(), but returns it instead of printing it.
+     * Any number of threads can call this on the same model at once.
+     * @param end the word the generated text should end with
+     * @param numOfWordsToGenerate the number of words to generate
+     * @param generationType the type of generation to use, must be either "all" or "one"
+     * @return the generated words separated by spaces, ending with the given word
+     * @throws IllegalArgumentException if the generation type is not "all" or "one"
+     */
+    public String generateBackward(String end, int numOfWordsToGenerate, String generationType)
+    {
+        //switch on the generation type
+        switch(generationType.toLowerCase())
+        {
+            case "all":
+                return generateCompiledText(end, numOfWordsToGenerate, false, true);
+            case "one":
+                return generateCompiledText(end, numOfWordsToGenerate, true, true);
+            default:
+                //generation type is invalid, throw an exception
+                throw new IllegalArgumentException("Invalid generation type");
+        }
+    }
+
+
+    /**
+     * Gets the K words that most often come right before the given word,
+     * in order from most probable to least probable.
+     * @param word the word to get the predecessors of
+     * @param K the number of words to return, if K is greater than the number of predecessors it returns all of them
+     * @return the predecessors separated by spaces, or an empty string if nothing comes before the word
+     */
+    public String getMostProbablePredecessors(String word, int K)
+    {
+        CompiledGraph reverse = getReverseGraph();
+        int id = reverse.getId(formatWord(word));
+        return (id < 0) ? "" : reverse.getMostProbableList(id, K);
+    }
+
+
     /**
      * Generates text based on the given seed word and number of words to generate.
      * This represents the 3 command-line argument case.
@@ -77,62 +307,299 @@ public class GenerativeModel
      * @param K the number of most probable words to return
      */
     public void generateText(String seed, int K)
+    {
+        System.out.println(getMostProbableWords(seed, K));
+    }
+
+
+    /**
+     * Gets the K words that most often come right after the given word, the same way as generateText(seed, K),
+     * but returns them instead of printing them. Any number of threads can call this on the same model at once.
+     * @param seed the word to get the successors of
+     * @param K the number of words to return, if K is greater than the number of successors it returns all of them
+     * @return the successors separated by spaces, from most to least probable, or an empty string if there are none
+     */
+    public String getMostProbableWords(String seed, int K)
     {
         //get the most probable words that come after the seed word
         String curWord = formatWord(seed);
-        System.out.println(graph.getMostProbableList(curWord, K));
+        if(graph == null)
+        {
+            //the model was loaded from a model file, so only the compiled graph is there
+            CompiledGraph compiled = compiledGraph;
+            int seedId = compiled.getId(curWord);
+            return (seedId < 0) ? "" : compiled.getMostProbableList(seedId, K);
+        }
+        return graph.getMostProbableList(curWord, K);
+    }
+
+
+
+
+
+    /**
+     * Gets the log of the probability that one word comes right after another in the training text.
+     * Both words are formatted the same way as the training text.
+     * @param word the word that comes first
+     * @param nextWord the word that comes after it
+     * @param smoothing the pseudo-count added to every possible word pair, 0 for no smoothing
+     * @return the natural log of P(nextWord | word)
+     * @throws IllegalArgumentException if smoothing is negative or NaN
+     * @see CompiledGraph#logProbability(int, int, double) for how smoothing is applied
+     */
+    public double logProbability(String word, String nextWord, double smoothing)
+    {
+        CompiledGraph.checkSmoothing(smoothing);
+        CompiledGraph compiled = getCompiledGraph();
+        return compiled.logProbability(compiled.getId(formatWord(word)), compiled.getId(formatWord(nextWord)), smoothing);
     }
 
 
+    /**
+     * Scores a text file with the model, giving the log probability of every word given the one before it.
+     * The file is split and formatted exactly like the training text, and word pairs carry over line breaks.
+     * Lines are read in batches, and each batch is turned into word ids and scored in parallel,
+     * so the cost per word is a lookup of each word and one O(1) probability.
+     * @param filePath the file path of the text file to score
+     * @param smoothing the pseudo-count added to every possible word pair, 0 for no smoothing
+     * @return the per word log probabilities, the total log likelihood and the perplexity of the text
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if smoothing is negative or NaN
+     */
+    public Score score(String filePath, double smoothing) throws IOException
+    {
+        CompiledGraph.checkSmoothing(smoothing);
+        CompiledGraph compiled = getCompiledGraph();
+
+        double[] logProbabilities = new double[1024];
+        int count = 0;
+        int previousId = NO_WORD;
+        ArrayList<String> lines = new ArrayList<>(SCORE_BATCH_LINES);
+        try(BufferedReader reader = new BufferedReader(new FileReader(filePath)))
+        {
+            String line = reader.readLine();
+            while(line != null)
+            {
+                lines.clear();
+                while(line != null && lines.size() < SCORE_BATCH_LINES)
+                {
+                    lines.add(line);
+                    line = reader.readLine();
+                }
+
+                //turn every line of the batch into word ids in parallel
+                int[][] ids = new int[lines.size()][];
+                IntStream.range(0, lines.size()).parallel().forEach(i -> ids[i] = toIds(compiled, lines.get(i)));
+
+                //find the word before each line and where its scores go, which depends on the lines before it
+                int[] previousIds = new int[lines.size()];
+                int[] starts = new int[lines.size()];
+                for(int i = 0; i < lines.size(); i++)
+                {
+                    previousIds[i] = previousId;
+                    starts[i] = count;
+                    if(ids[i].length > 0)
+                    {
+                        count += (previousId == NO_WORD) ? ids[i].length - 1 : ids[i].length;
+                        previousId = ids[i][ids[i].length - 1];
+                    }
+                }
+                if(count > logProbabilities.length)
+                {
+                    logProbabilities = Arrays.copyOf(logProbabilities, Math.max(count, logProbabilities.length * 2));
+                }
+
+                //score every line of the batch in parallel
+                double[] scores = logProbabilities;
+                IntStream.range(0, lines.size()).parallel().forEach(i -> {
+                    int previous = previousIds[i];
+                    int position = starts[i];
+                    for(int id : ids[i])
+                    {
+                        if(previous != NO_WORD)
+                            scores[position++] = compiled.logProbability(previous, id, smoothing);
+                        previous = id;
+                    }
+                });
+            }
+        }
 
+        //add the scores up in order, so the total is the same on every run
+        logProbabilities = Arrays.copyOf(logProbabilities, count);
+        double logLikelihood = 0;
+        for(double logProbability : logProbabilities)
+        {
+            logLikelihood += logProbability;
+        }
+        double perplexity = (count > 0) ? Math.exp(-logLikelihood / count) : Double.NaN;
+        return new Score(logProbabilities, logLikelihood, perplexity);
+    }
+
+
+    /**
+     * Splits and formats a line the same way as createGraph(), then looks up the id of every word.
+     * @param compiled the graph to look the words up in
+     * @param line the line to turn into ids
+     * @return the id of every word in the line that isn't empty once formatted, -1 for words not in the graph
+     */
+    private static int[] toIds(CompiledGraph compiled, String line)
+    {
+        LineScratch scratch = LINE_SCRATCH.get();
+        scratch.fit(line.length());
+        int[] ends = scratch.ends;
+        byte[] formattedWord = scratch.word;
+        int[] ids = scratch.ids;
+        int words = split(line, ends);
+        int count = 0;
+        for(int i = 0; i < words; i++)
+        {
+            int length = formatWord(line, (i == 0) ? 0 : ends[i - 1] + 1, ends[i], formattedWord, 0);
+            if(length > 0)
+                ids[count++] = compiled.getId(formattedWord, 0, length);
+        }
+        return Arrays.copyOf(ids, count);
+    }
 
 
     /**
      * Fills the model with the words from the given file
      * @param filePath the file path of the text file to parse
-     * @throws IOException if the file path is invalid
+     * @param checkpointPath the checkpoint file to resume from and write to, or null to train without checkpoints
+     * @param checkpointLines the number of lines between checkpoints
+     * @throws IOException if the file path is invalid, or a checkpoint can't be read or written
      */
-    private void createGraph(String filePath) throws IOException {
+    private void createGraph(String filePath, Path checkpointPath, long checkpointLines) throws IOException {
         File file = new File(filePath);
         BufferedReader reader = new BufferedReader(new FileReader(file));
 
-        //The word that comes before the current one in the loop
+        //The id of the word that comes before the current one in the loop, -1 if there isn't one yet
         //Stored outside, so it's not overwritten with new lines
-        String previousWord = "";
+        int previousId = -1;
         String line;
-        //store already formatted words to avoid extra calls to formatWord
-        HashMap<String, String> formattedWords = new HashMap<>();
-        //for each line in the file, separate the words and add them to the graph as connections
-        while((line = reader.readLine()) != null)
+        //the number of lines read so far, and a hash of them to check a checkpoint against
+        long linesRead = 0;
+        long linesHash = 0;
+        //checkpoints are written one at a time on their own thread, so training doesn't wait on the disk
+        ExecutorService writer = null;
+        Future<?> pendingWrite = null;
+        //store the ids of already formatted words to avoid extra calls to formatWord, -1 for words that format to nothing
+        HashMap<String, Integer> wordIds = new HashMap<>();
+        try
         {
-            ArrayList<String> words = split(line);
-            String unformattedWord;
-            for(int i = 0; i < words.size(); i++)
+            if(checkpointPath != null)
             {
-                //check if the word is already formatted
-                unformattedWord = words.get(i);
-                String formattedWord = formattedWords.get(unformattedWord);
-                if (formattedWord == null)
+                if(Files.exists(checkpointPath))
                 {
-                    //if not, format the word & add to the map
-                    formattedWord = formatWord(unformattedWord);
-                    formattedWords.put(unformattedWord, formattedWord);
+                    //put the graph back the way it was, then skip the lines that are already in it
+                    TrainingCheckpoint checkpoint = TrainingCheckpoint.read(checkpointPath);
+                    checkpoint.restore(this.graph);
+                    previousId = checkpoint.getPreviousId();
+                    while(linesRead < checkpoint.getLinesRead() && (line = reader.readLine()) != null)
+                    {
+                        linesHash = TrainingCheckpoint.hashLine(linesHash, line);
+                        linesRead++;
+                    }
+                    if(linesRead < checkpoint.getLinesRead() || linesHash != checkpoint.getLinesHash())
+                    {
+                        throw new IOException("The checkpoint " + checkpointPath + " was made from a different file than " + filePath);
+                    }
                 }
+                writer = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "checkpoint-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
 
-                if(!formattedWord.isEmpty())
+            //for each line in the file, separate the words and add them to the graph as connections
+            while((line = reader.readLine()) != null)
+            {
+                ArrayList<String> words = split(line);
+                String unformattedWord;
+                for(int i = 0; i < words.size(); i++)
                 {
-                    if(!previousWord.isEmpty()) {
-                        //if the word pair is not empty, add the connection to the graph
-                        this.graph.addConnection(previousWord, formattedWord);
+                    //check if the word is already formatted
+                    unformattedWord = words.get(i);
+                    Integer wordId = wordIds.get(unformattedWord);
+                    if (wordId == null)
+                    {
+                        //if not, format the word & add it to the graph and the map
+                        String formattedWord = formatWord(unformattedWord);
+                        wordId = formattedWord.isEmpty() ? -1 : this.graph.addWord(formattedWord);
+                        wordIds.put(unformattedWord, wordId);
                     }
 
-                    //if the formatted word is not empty, set the previous word to the current word
-                    previousWord = formattedWord;
+                    if(wordId >= 0)
+                    {
+                        if(previousId >= 0) {
+                            //if the word pair is not empty, add the connection to the graph
+                            this.graph.addConnection(previousId, wordId);
+                        }
+
+                        //if the formatted word is not empty, set the previous word to the current word
+                        previousId = wordId;
+                    }
                 }
+
+                if(writer != null)
+                {
+                    linesRead++;
+                    linesHash = TrainingCheckpoint.hashLine(linesHash, line);
+                    //skip this checkpoint if the last one is still being written
+                    if(linesRead % checkpointLines == 0 && (pendingWrite == null || pendingWrite.isDone()))
+                    {
+                        waitFor(pendingWrite);
+                        TrainingCheckpoint checkpoint = TrainingCheckpoint.capture(this.graph, linesRead, linesHash, previousId);
+                        pendingWrite = writer.submit(() -> {
+                            checkpoint.write(checkpointPath);
+                            return null;
+                        });
+                    }
+                }
+            }
+
+            if(writer != null)
+            {
+                //the file is done, so write a last checkpoint holding every line
+                waitFor(pendingWrite);
+                TrainingCheckpoint.capture(this.graph, linesRead, linesHash, previousId).write(checkpointPath);
             }
+        }
+        finally
+        {
+            if(writer != null)
+                writer.shutdownNow();
+            reader.close();
+        }
+    }
+
 
+    /**
+     * Waits for a checkpoint to finish being written, and passes on any error from writing it.
+     * @param pendingWrite the write to wait for, or null if there isn't one
+     * @throws IOException if the checkpoint couldn't be written
+     */
+    private static void waitFor(Future<?> pendingWrite) throws IOException
+    {
+        if(pendingWrite == null)
+        {
+            return;
+        }
+        try
+        {
+            pendingWrite.get();
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Could not write the checkpoint", e.getCause());
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the checkpoint");
         }
-        reader.close();
     }
 
 
@@ -172,36 +639,169 @@ public class GenerativeModel
 
 
     /**
-     * Generates random text based on the given seed word and number of words to generate.
-     * This is the "all" generation type, which generates a random word each time.
-     * @param seed the seed word to generate text from
-     * @param numWords the number of words to generate
+     * Splits the line into words separated by spaces, without creating any objects.
+     * This finds the same words as split(String), but only writes where each one ends:
+     * word i goes from {@code (i == 0 ? 0 : ends[i - 1] + 1)} up to (not including) {@code ends[i]}.
+     * @param line the line to split
+     * @param ends filled with the end of every word, must have room for the number of spaces in the line + 1
+     * @return the number of words, which is always at least 1
      */
+    public static int split(CharSequence line, int[] ends)
+    {
+        int count = 0;
+        for(int i = 0; i < line.length(); i++)
+        {
+            if(line.charAt(i) == ' ')
+                ends[count++] = i;
+        }
+        //the last word ends at the end of the line
+        ends[count++] = line.length();
+        return count;
+    }
 
-    private void generateRandomText(String seed, int numWords) {
-        StringBuilder result = new StringBuilder();
-        String curWord = formatWord(seed);
 
-        //for the number of words to generate, add the formatted word to the result and get the next word
-        for (int i = 0; i < numWords - 1; i++) {
-            result.append(curWord).append(" ");
-            curWord = graph.getRandom(curWord); // set the current word to a random next word
+    /**
+     * Splits a line of bytes (such as ASCII or UTF-8 text) into words separated by spaces, without creating any objects.
+     * The spaces are found 8 bytes at a time, by treating each 8 bytes as one long (SWAR).
+     * Word i goes from {@code (i == 0 ? from : ends[i - 1] + 1)} up to (not including) {@code ends[i]}.
+     * @param line the array holding the line
+     * @param from the index of the first byte of the line
+     * @param to the index after the last byte of the line
+     * @param ends filled with the end of every word, must have room for the number of spaces in the line + 1
+     * @return the number of words, which is always at least 1
+     */
+    public static int split(byte[] line, int from, int to, int[] ends)
+    {
+        int count = 0;
+        int i = from;
+        for(; i + 8 <= to; i += 8)
+        {
+            //a byte of the xor is zero exactly where the line has a space
+            long spaces = (long) LONG_VIEW.get(line, i) ^ (ONES * ' ');
+            long found = (spaces - ONES) & ~spaces & HIGH_BITS;
+            while(found != 0)
+            {
+                //the lowest flag is always a real space, but flags above it can be false when a byte borrows
+                int index = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                if(line[index] == ' ')
+                    ends[count++] = index;
+                found &= found - 1;
+            }
+        }
+        for(; i < to; i++)
+        {
+            if(line[i] == ' ')
+                ends[count++] = i;
+        }
+        ends[count++] = to;
+        return count;
+    }
+
 
-            //if the current word is empty, set it to the seed word
-            if (curWord.isEmpty())
-                curWord = formatWord(seed);
+    /**
+     * Removes bad formatting from part of a line, without creating any objects.
+     * This gives the same word as formatWord(String): everything before the first character that is not a letter,
+     * digit, underscore or whitespace, lowercased. Since only ASCII characters are kept, the word is written as bytes.
+     * @param word the text holding the word
+     * @param from the index of the first character of the word
+     * @param to the index after the last character of the word
+     * @param out where to write the formatted word, must have room for to - from bytes after outOffset
+     * @param outOffset where to start writing in out
+     * @return the length of the formatted word, 0 if the word is not valid
+     */
+    public static int formatWord(CharSequence word, int from, int to, byte[] out, int outOffset)
+    {
+        int length = 0;
+        for(int i = from; i < to; i++)
+        {
+            char c = word.charAt(i);
+            if(c >= 128 || !WORD_CHARACTERS[c])
+                break;
+            out[outOffset + length++] = (byte) ((c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c);
+        }
+        return length;
+    }
+
+
+    /**
+     * Removes bad formatting from part of a line of bytes (such as ASCII or UTF-8 text), without creating any objects.
+     * This gives the same word as formatWord(String) does on the decoded text. The characters are classified
+     * and lowercased 8 bytes at a time, by treating each 8 bytes as one long (SWAR).
+     * @param word the array holding the word
+     * @param from the index of the first byte of the word
+     * @param to the index after the last byte of the word
+     * @param out where to write the formatted word, must have room for to - from bytes after outOffset
+     * @param outOffset where to start writing in out
+     * @return the length of the formatted word, 0 if the word is not valid
+     */
+    public static int formatWord(byte[] word, int from, int to, byte[] out, int outOffset)
+    {
+        int i = from;
+        for(; i + 8 <= to; i += 8)
+        {
+            long bytes = (long) LONG_VIEW.get(word, i);
+            long kept = wordCharacters(bytes);
+            //lowercase by adding 0x20 to every capital letter, which is the high bit of its flag moved over
+            LONG_VIEW.set(out, outOffset + i - from, bytes | (inRange(bytes, 'A', 'Z') >>> 2));
+            if(kept != HIGH_BITS)
+            {
+                //stop at the first byte that isn't kept
+                return i - from + (Long.numberOfTrailingZeros(~kept & HIGH_BITS) >>> 3);
+            }
         }
-        //add the last word to the result without whitespace
-        if(numWords > 0)
+        for(; i < to; i++)
         {
-            if(!curWord.isEmpty())
-                result.append(curWord);
-            else
-                result.append(seed);
+            int c = word[i];
+            if(c < 0 || !WORD_CHARACTERS[c])
+                break;
+            out[outOffset + i - from] = (byte) ((c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c);
         }
+        return i - from;
+    }
 
-        //print the result to the console
-        System.out.println(result);
+
+    /**
+     * Flags the bytes of a long that formatWord() keeps, by setting their high bit.
+     * Bytes that aren't ASCII never match, since they are never letters, digits, underscores or whitespace.
+     * @param bytes 8 bytes of text
+     * @return the high bit of every byte that is kept set, every other bit clear
+     */
+    private static long wordCharacters(long bytes)
+    {
+        long kept = inRange(bytes, '0', '9') | inRange(bytes, 'A', 'Z') | inRange(bytes, 'a', 'z')
+                | inRange(bytes, '_', '_') | inRange(bytes, '\t', '\r') | inRange(bytes, ' ', ' ');
+        return kept & ~bytes;
+    }
+
+
+    /**
+     * Flags the bytes of a long that are between two ASCII values, by setting their high bit.
+     * The high bits are cleared first, so adding to one byte can never carry into the next one.
+     * @param bytes 8 bytes of text
+     * @param low the smallest value to flag
+     * @param high the biggest value to flag
+     * @return the high bit of every byte from low to high set, ignoring each byte's own high bit
+     */
+    private static long inRange(long bytes, int low, int high)
+    {
+        long low7 = bytes & ~HIGH_BITS;
+        //the high bit of a byte is set once it reaches low, and once it goes over high
+        long atLeastLow = low7 + ONES * (0x80 - low);
+        long overHigh = low7 + ONES * (0x7f - high);
+        return atLeastLow & ~overHigh & HIGH_BITS;
+    }
+
+
+    /**
+     * Generates random text based on the given seed word and number of words to generate.
+     * This is the "all" generation type, which generates a random word each time.
+     * @param seed the seed word to generate text from
+     * @param numWords the number of words to generate
+     * @return the generated words separated by spaces
+     */
+
+    private String generateRandomText(String seed, int numWords) {
+        return generateCompiledText(seed, numWords, false, false);
     }
 
     /**
@@ -209,31 +809,102 @@ public class GenerativeModel
      * This is the "one" generation type, which generates the most probable next word each time.
      * @param seed the seed word to generate text from
      * @param numWords the number of words to generate
+     * @return the generated words separated by spaces
+     */
+    private String generateMostProbableText(String seed, int numWords)
+    {
+        return generateCompiledText(seed, numWords, true, false);
+    }
+
+
+    /**
+     * Generates text by walking the compiled graph from the seed word.
+     * The seed is formatted and looked up once, every step after that only works on word ids,
+     * and the ids are turned back into text in a single pass at the end.
+     * @param seed the seed word to generate text from
+     * @param numWords the number of words to generate
+     * @param mostProbable true for the "one" generation type, false for the "all" generation type
+     * @param backward true to walk the reverse graph, so the seed is the last word instead of the first
+     * @return the generated words separated by spaces
      */
-    private void generateMostProbableText(String seed, int numWords)
+    private String generateCompiledText(String seed, int numWords, boolean mostProbable, boolean backward)
     {
-        StringBuilder result = new StringBuilder();
+        CompiledGraph compiled = backward ? getReverseGraph() : getCompiledGraph();
         String curWord = formatWord(seed);
-        //for the number of words to generate, add the formatted word to the result and get the next word
-        for(int i = 0; i < numWords - 1; i++){
-            result.append(curWord).append(" ");
-            curWord = graph.getMax(curWord); // set the current word to the maximum word
-
-            //if the current word is still empty, set it to the seed word
-            if (curWord.isEmpty())
-                curWord = formatWord(seed);
+        int seedId = compiled.getId(curWord);
+        if(seedId < 0)
+        {
+            //the seed never appears in the text, so every generated word is the seed itself
+            StringBuilder result = new StringBuilder();
+            for(int i = 0; i < numWords - 1; i++)
+                result.append(curWord).append(" ");
+            if(numWords > 0)
+                result.append(curWord.isEmpty() ? seed : curWord);
+            return result.toString();
         }
 
-        //add the last word to the result without whitespace
-        if(numWords > 0)
+        int[] path = new int[Math.max(numWords, 0)];
+        compiled.walk(seedId, path, mostProbable);
+        if(backward)
         {
-            if(!curWord.isEmpty())
-                result.append(curWord);
-            else
-                result.append(seed);
+            //the walk went from the last word to the first, so flip it around
+            for(int i = 0, j = path.length - 1; i < j; i++, j--)
+            {
+                int temp = path[i];
+                path[i] = path[j];
+                path[j] = temp;
+            }
+        }
+        return new String(compiled.decode(path), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Gets the compiled copy of the graph, compiling it the first time this is called.
+     * Only the first call takes the lock, so threads calling generate() at the same time never wait on each other.
+     * This is also used by the timing classes.
+     * @return the id based copy of the graph
+     */
+    CompiledGraph getCompiledGraph()
+    {
+        CompiledGraph compiled = compiledGraph;
+        if(compiled == null)
+        {
+            synchronized(this)
+            {
+                compiled = compiledGraph;
+                if(compiled == null)
+                {
+                    compiled = graph.compile();
+                    compiledGraph = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
+
+    /**
+     * Gets the reverse of the compiled graph, building it the first time this is called.
+     * Only the first call takes the lock, the same as getCompiledGraph().
+     * @return the compiled graph with every edge pointing the other way
+     */
+    private CompiledGraph getReverseGraph()
+    {
+        CompiledGraph reverse = reverseGraph;
+        if(reverse == null)
+        {
+            synchronized(this)
+            {
+                reverse = reverseGraph;
+                if(reverse == null)
+                {
+                    reverse = getCompiledGraph().reverse();
+                    reverseGraph = reverse;
+                }
+            }
         }
-        //print the result to the console
-        System.out.println(result);
+        return reverse;
     }
 
 
@@ -245,16 +916,53 @@ public class GenerativeModel
     public static String formatWord(String word)
     {
         var matcher = regexPattern.matcher(word);
-        return (matcher.find()) ? word.substring(0,matcher.start()).toLowerCase(): word.toLowerCase();
+        //Locale.ROOT lowercases the same way everywhere, like the ASCII only byte version of this method
+        return (matcher.find()) ? word.substring(0,matcher.start()).toLowerCase(Locale.ROOT): word.toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * Gets the graph the model was trained into, used by the timing classes.
+     * @return the underlying DirectedGraph, or null if the model was loaded from a model file
+     */
+    DirectedGraph getDirectedGraph()
+    {
+        return graph;
+    }
+
+
+    /**
+     * Writes the whole graph to a channel in the given format, streaming it in parallel chunks of vertexes.
+     * Unlike getGraph(), this never holds the whole graph as text, so it works on models of any size.
+     * @param channel the channel to write to, which is left open
+     * @param format the format to write the graph in
+     * @throws IOException if the channel can't be written
+     * @see GraphExporter for the formats
+     */
+    public void exportGraph(WritableByteChannel channel, GraphExporter.Format format) throws IOException
+    {
+        new GraphExporter(getCompiledGraph(), format).export(channel);
     }
 
 
     /**
-     * Gets the graph as a string
+     * Gets the graph as a string.
+     * This builds the whole graph in memory, so exportGraph() should be used for big models.
      * @return the graph represented as a string
      */
     public String getGraph()
     {
+        if(graph == null)
+        {
+            //the model was loaded from a model file, so list the vertexes of the compiled graph
+            ArrayList<String> result = new ArrayList<>();
+            for(int id = 0; id < compiledGraph.size(); id++)
+            {
+                if(compiledGraph.getMax(id) >= 0)
+                    result.add(compiledGraph.getWord(id) + " - " + compiledGraph.getMostProbableList(id, Integer.MAX_VALUE));
+            }
+            return result.toString();
+        }
         String[] vertexes = graph.getVertexes();
         String[] result = new String[vertexes.length];
         int i = 0;
@@ -52,4 +52,255 @@ public class GenerativeModelTest {
         model2.generateText( "the", 10, "all");
     }
 
+    @org.junit.jupiter.api.Test
+    void testScore() throws java.io.IOException
+    {
+        var training = java.nio.file.Files.createTempFile("training", ".txt");
+        var text = java.nio.file.Files.createTempFile("text", ".txt");
+        java.nio.file.Files.writeString(training, "a b A, c\na b");
+        java.nio.file.Files.writeString(text, "a b\na 'x c b");
+        var model2 = new GenerativeModel(training.toString());
+
+        //pairs carry over the line break, and 'x is dropped just like when training
+        var score = model2.score(text.toString(), 0);
+        assertEquals(4, score.logProbabilities().length);
+        assertEquals(Math.log(2.0 / 3), score.logProbabilities()[0], 1e-9);
+        assertEquals(Math.log(1.0 / 1), score.logProbabilities()[1], 1e-9);
+        assertEquals(Math.log(1.0 / 3), score.logProbabilities()[2], 1e-9);
+        assertEquals(Double.NEGATIVE_INFINITY, score.logProbabilities()[3]); // "c b" never happens
+
+        //with smoothing every pair gets a probability, out of a vocabulary of 3 words
+        score = model2.score(text.toString(), 1);
+        assertEquals(Math.log(1.0 / 4), score.logProbabilities()[3], 1e-9);
+        assertEquals(Math.exp(-score.logLikelihood() / 4), score.perplexity(), 1e-9);
+        assertEquals(Math.log(2.0 / 3), model2.logProbability("A", "b!", 0), 1e-9);
+
+        //a word that was never seen gets the same share for every word in the vocabulary
+        assertEquals(Math.log(1.0 / 3), model2.logProbability("zzz", "b", 1), 1e-9);
+        assertEquals(Double.NEGATIVE_INFINITY, model2.logProbability("zzz", "b", 0));
+
+        //smoothing has to be a number that isn't negative, on every path
+        assertThrows(IllegalArgumentException.class, () -> model2.score(text.toString(), Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> model2.score(text.toString(), -1));
+        assertThrows(IllegalArgumentException.class, () -> model2.logProbability("a", "b", Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> model2.getCompiledGraph().logProbability(0, 0, -0.5));
+
+        //an empty model has nothing to smooth over
+        java.nio.file.Files.writeString(training, "");
+        assertEquals(Double.NEGATIVE_INFINITY, new GenerativeModel(training.toString()).logProbability("a", "b", 1));
+
+        java.nio.file.Files.delete(training);
+        java.nio.file.Files.delete(text);
+    }
+
+    @org.junit.jupiter.api.Test
+    void testGenerateBackward() throws java.io.IOException
+    {
+        var training = java.nio.file.Files.createTempFile("training", ".txt");
+        java.nio.file.Files.writeString(training, "the bee flies\nthe bee stings the cat");
+        var model2 = new GenerativeModel(training.toString());
+        java.nio.file.Files.delete(training);
+
+        //the walk goes back from the given word, and comes out in reading order
+        assertEquals("the bee flies the cat", model2.generateBackward("cat", 5, "one"));
+        assertEquals("bee flies the bee flies the", model2.generateBackward("The!", 6, "one"));
+        assertEquals("cat", model2.generateBackward("Cat!", 1, "one"));
+        for(int i = 0; i < 100; i++)
+        {
+            var words = model2.generateBackward("cat", 6, "all").split(" ");
+            assertEquals(6, words.length);
+            assertEquals("cat", words[5]);
+            for(int j = 1; j < words.length; j++)
+            {
+                assertTrue(model2.logProbability(words[j - 1], words[j], 0) > Double.NEGATIVE_INFINITY);
+            }
+        }
+
+        //a word that never appears is just repeated, the same as going forwards
+        assertEquals("zebra zebra zebra", model2.generateBackward("Zebra!", 3, "one"));
+        assertEquals(model2.generate("Zebra!", 3, "all"), model2.generateBackward("Zebra!", 3, "all"));
+        assertThrows(IllegalArgumentException.class, () -> model2.generateBackward("cat", 3, "some"));
+
+        //predecessors are formatted like any other word, most probable first
+        assertEquals("the", model2.getMostProbablePredecessors("bee", 5));
+        assertEquals("flies stings", model2.getMostProbablePredecessors("The!", 5));
+        assertEquals("bee", model2.getMostProbablePredecessors("flies", 1));
+        assertEquals("", model2.getMostProbablePredecessors("zebra", 5));
+    }
+
+    @org.junit.jupiter.api.Test
+    void testCheckpoint() throws java.io.IOException
+    {
+        var directory = java.nio.file.Files.createTempDirectory("checkpoint");
+        var text = directory.resolve("text.txt");
+        var checkpoint = directory.resolve("checkpoint.bin").toString();
+        var lines = java.nio.file.Files.readAllLines(java.nio.file.Path.of("beeMovie.txt"));
+        var firstHalf = String.join("\n", lines.subList(0, lines.size() / 2)) + "\n";
+        var secondHalf = String.join("\n", lines.subList(lines.size() / 2, lines.size()));
+
+        //train on half the file, then pick up from the checkpoint once the rest is there
+        java.nio.file.Files.writeString(text, firstHalf);
+        new GenerativeModel(text.toString(), checkpoint, 50);
+        java.nio.file.Files.writeString(text, secondHalf, java.nio.file.StandardOpenOption.APPEND);
+        var resumed = new GenerativeModel(text.toString(), checkpoint, 50);
+        assertEquals(new GenerativeModel(text.toString()).getGraph(), resumed.getGraph());
+
+        //a checkpoint can't be used with a different file
+        java.nio.file.Files.writeString(text, secondHalf + firstHalf);
+        assertThrows(java.io.IOException.class, () -> new GenerativeModel(text.toString(), checkpoint, 50));
+        assertThrows(FileNotFoundException.class, () -> new GenerativeModel(directory.resolve("nope.txt").toString()));
+
+        java.nio.file.Files.delete(text);
+        java.nio.file.Files.delete(java.nio.file.Path.of(checkpoint));
+        java.nio.file.Files.delete(directory);
+    }
+
+    @org.junit.jupiter.api.Test
+    void testOpenModelFile() throws java.io.IOException
+    {
+        //a text file is trained on, and a saved model file is loaded without training
+        var trained = GenerativeModel.open("beeMovie.txt");
+        assertNotNull(trained.getDirectedGraph());
+        var file = java.nio.file.Files.createTempFile("model", ".bin");
+        trained.save(file.toString());
+        var loaded = GenerativeModel.open(file.toString());
+        assertNull(loaded.getDirectedGraph());
+
+        //the loaded model gives the same answers as the one it was saved from
+        assertEquals(trained.generate("the", 20, "one"), loaded.generate("the", 20, "one"));
+        assertEquals(trained.getMostProbableWords("bee", 5), loaded.getMostProbableWords("bee", 5));
+        assertEquals(trained.getMostProbableWords("Honey!", 5), loaded.getMostProbableWords("Honey!", 5));
+        assertEquals("", loaded.getMostProbableWords("nope", 5));
+        assertEquals(Math.exp(trained.logProbability("the", "bee", 0)), Math.exp(loaded.logProbability("the", "bee", 0)), 1e-12);
+
+        //the vertexes are listed in a different order, but hold the same successors
+        var trainedGraph = trained.getGraph();
+        var loadedGraph = loaded.getGraph();
+        var trainedVertexes = trainedGraph.substring(1, trainedGraph.length() - 1).split(", ");
+        var loadedVertexes = loadedGraph.substring(1, loadedGraph.length() - 1).split(", ");
+        Arrays.sort(trainedVertexes);
+        Arrays.sort(loadedVertexes);
+        assertArrayEquals(trainedVertexes, loadedVertexes);
+
+        //a cut off model file, or text that starts with the magic number in either byte order, is not a model
+        var bytes = java.nio.file.Files.readAllBytes(file);
+        java.nio.file.Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertFalse(CompiledGraph.isModelFile(file.toString()));
+        for(var text : new String[]{"MKG1 the bee\nthe bee flies", "1GKM the bee\nthe bee flies"})
+        {
+            java.nio.file.Files.writeString(file, text);
+            assertFalse(CompiledGraph.isModelFile(file.toString()));
+            var model2 = GenerativeModel.open(file.toString());
+            assertNotNull(model2.getDirectedGraph());
+            assertEquals("the bee flies the", model2.generate("the", 4, "one"));
+        }
+        java.nio.file.Files.delete(file);
+    }
+
+    @org.junit.jupiter.api.Test
+    void testConcurrentGeneration() throws Exception
+    {
+        //many threads share one model from the start, including the first call that compiles the graph
+        var model2 = new GenerativeModel("beeMovie.txt");
+        var expected = new GenerativeModel("beeMovie.txt");
+        var seeds = new String[]{"the", "bee", "honey", "you", "barry"};
+        var pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+        var results = new java.util.ArrayList<java.util.concurrent.Future<String>>();
+        for(int i = 0; i < 400; i++)
+        {
+            var seed = seeds[i % seeds.length];
+            var mostProbable = i % 2 == 0;
+            results.add(pool.submit(() -> mostProbable
+                    ? model2.generate(seed, 20, "one")
+                    : model2.getMostProbableWords(seed, 5)));
+        }
+        for(int i = 0; i < 400; i++)
+        {
+            var seed = seeds[i % seeds.length];
+            assertEquals((i % 2 == 0) ? expected.generate(seed, 20, "one") : expected.getMostProbableWords(seed, 5),
+                    results.get(i).get());
+        }
+        pool.shutdown();
+    }
+
+    @org.junit.jupiter.api.Test
+    void testFormatWordInOtherLocale() throws java.io.IOException
+    {
+        //in Turkish "I" lowercases to a dotless i, which would make the String and byte paths disagree
+        var defaultLocale = java.util.Locale.getDefault();
+        java.util.Locale.setDefault(java.util.Locale.forLanguageTag("tr-TR"));
+        try
+        {
+            assertEquals("iris", GenerativeModel.formatWord("IRIS"));
+            var line = "IRIS Is In IZMIR";
+            byte[] out = new byte[line.length()];
+            int length = GenerativeModel.formatWord(line, 0, 4, out, 0);
+            assertEquals(GenerativeModel.formatWord("IRIS"), new String(out, 0, length, java.nio.charset.StandardCharsets.US_ASCII));
+
+            //a model trained under this locale finds the same words as one trained anywhere else
+            var training = java.nio.file.Files.createTempFile("training", ".txt");
+            java.nio.file.Files.writeString(training, line);
+            var model2 = new GenerativeModel(training.toString());
+            assertEquals("iris is in izmir", model2.generate("Iris", 4, "one"));
+            assertEquals(0, model2.logProbability("IRIS", "is", 0), 1e-9);
+            java.nio.file.Files.delete(training);
+        }
+        finally
+        {
+            java.util.Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void testBufferedSplitAndFormat() throws java.io.IOException
+    {
+        //every line of the text files, plus random lines full of spaces, punctuation, capitals and non-ASCII
+        var lines = new java.util.ArrayList<String>();
+        for(var file : new String[]{"src/warAndPeace.txt", "beeMovie.txt", "trickyFormatting.txt", "the-old-english-physiologus.txt"})
+        {
+            lines.addAll(java.nio.file.Files.readAllLines(java.nio.file.Path.of(file)));
+        }
+        var random = new java.util.Random(42);
+        var alphabet = "  aZz09_'.,-#\t\u000b\r\u00e9\u00c9\u0101\u4e2d";
+        for(int i = 0; i < 10000; i++)
+        {
+            var line = new StringBuilder();
+            for(int j = random.nextInt(40); j > 0; j--)
+            {
+                line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            lines.add(line.toString());
+        }
+
+        int[] ends = new int[64];
+        byte[] out = new byte[64];
+        for(var line : lines)
+        {
+            if(ends.length <= line.length() * 3)
+            {
+                ends = new int[line.length() * 3 + 1];
+                out = new byte[line.length() * 3];
+            }
+            var expected = GenerativeModel.split(line);
+            var bytes = line.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+            //the same words from the String, and from the UTF-8 bytes of the line
+            assertEquals(expected.size(), GenerativeModel.split(line, ends));
+            for(int i = 0; i < expected.size(); i++)
+            {
+                int from = (i == 0) ? 0 : ends[i - 1] + 1;
+                assertEquals(expected.get(i), line.substring(from, ends[i]));
+                int length = GenerativeModel.formatWord(line, from, ends[i], out, 0);
+                assertEquals(GenerativeModel.formatWord(expected.get(i)), new String(out, 0, length, java.nio.charset.StandardCharsets.US_ASCII));
+            }
+            assertEquals(expected.size(), GenerativeModel.split(bytes, 0, bytes.length, ends));
+            for(int i = 0; i < expected.size(); i++)
+            {
+                int from = (i == 0) ? 0 : ends[i - 1] + 1;
+                int length = GenerativeModel.formatWord(bytes, from, ends[i], out, 0);
+                assertEquals(GenerativeModel.formatWord(expected.get(i)), new String(out, 0, length, java.nio.charset.StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,300 @@
+package comprehensive;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ *  Writes a whole CompiledGraph to a channel as it goes, instead of building it as one String.
+ *  <p>
+ *  The vertexes are split into chunks of consecutive ids, and each chunk is encoded on its own thread.
+ *  Only a few chunks per processor are ever in flight, and they are written in id order as soon as the
+ *  oldest one is done, so memory stays bounded by the size of those chunks and the output is the same
+ *  on every run no matter how many threads there are.
+ *  <p>
+ *  The formats are:
+ *  <p>
+ *  - TSV: one line per edge, "source TAB destination TAB count", with tabs inside words written as "\t"
+ *  <p>
+ *  - JSON_LINES: one object per vertex that has successors, {"word":"the","total":7,"successors":[["same",3],...]}
+ *  <p>
+ *  - BINARY: big-endian ints. A header with a magic number, the word count and the edge count, then one
+ *  record per word in id order: the length of the word, its UTF-8 bytes, its degree, and then the id and
+ *  count of every successor. Words without successors still get a record so every id can be read back.
+ *  <p>
+ *  In every format the successors of a vertex are listed from most to least probable.
+ */
+public class GraphExporter {
+
+    /**
+     * The formats a graph can be exported in.
+     */
+    public enum Format { TSV, JSON_LINES, BINARY }
+
+    private static final int MAGIC = 0x4d4b4745; // "MKGE", the first four bytes of a binary export
+    private static final int CHUNK_VERTEXES = 4096; // the number of vertexes encoded together by one task
+
+    private final CompiledGraph graph; // the graph to export
+    private final Format format; // the format to write
+
+    /**
+     * Creates a new GraphExporter object.
+     * @param graph the graph to export
+     * @param format the format to write
+     */
+    public GraphExporter(CompiledGraph graph, Format format)
+    {
+        this.graph = graph;
+        this.format = format;
+    }
+
+
+    /**
+     * Writes the whole graph to the channel. The channel is not closed.
+     * @param channel the channel to write to
+     * @throws IOException if the channel can't be written
+     */
+    public void export(WritableByteChannel channel) throws IOException
+    {
+        if(format == Format.BINARY)
+        {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(MAGIC).putInt(graph.size()).putInt(edgeCount());
+            write(channel, header.flip());
+        }
+
+        //keep a few chunks per processor in flight, and write them in order as they finish
+        int maxInFlight = Runtime.getRuntime().availableProcessors() * 2;
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        for(int start = 0; start < graph.size(); start += CHUNK_VERTEXES)
+        {
+            if(inFlight.size() == maxInFlight)
+            {
+                write(channel, ByteBuffer.wrap(inFlight.removeFirst().join()));
+            }
+            int from = start;
+            int to = Math.min(start + CHUNK_VERTEXES, graph.size());
+            inFlight.addLast(CompletableFuture.supplyAsync(() -> encode(from, to)));
+        }
+        while(!inFlight.isEmpty())
+        {
+            write(channel, ByteBuffer.wrap(inFlight.removeFirst().join()));
+        }
+    }
+
+
+    /**
+     * Encodes the vertexes with ids from "from" to "to" - 1.
+     * @param from the first id of the chunk
+     * @param to the id after the last one of the chunk
+     * @return the encoded chunk
+     */
+    private byte[] encode(int from, int to)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(int id = from; id < to; id++)
+        {
+            switch(format)
+            {
+                case TSV:
+                    encodeTsv(id, out);
+                    break;
+                case JSON_LINES:
+                    encodeJson(id, out);
+                    break;
+                case BINARY:
+                    encodeBinary(id, out);
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Writes one TSV line for every edge of a vertex.
+     * @param id the id of the vertex
+     * @param out where to write the lines
+     */
+    private void encodeTsv(int id, ByteArrayOutputStream out)
+    {
+        byte[] source = graph.getWordBytes(id);
+        for(int i = 0; i < graph.getDegree(id); i++)
+        {
+            writeTsvWord(source, out);
+            out.write('\t');
+            writeTsvWord(graph.getWordBytes(graph.getSuccessor(id, i)), out);
+            out.write('\t');
+            writeNumber(graph.getSuccessorCount(id, i), out);
+            out.write('\n');
+        }
+    }
+
+
+    /**
+     * Writes one JSON object for a vertex, unless it has no successors.
+     * @param id the id of the vertex
+     * @param out where to write the object
+     */
+    private void encodeJson(int id, ByteArrayOutputStream out)
+    {
+        if(graph.getDegree(id) == 0)
+        {
+            return;
+        }
+        writeAscii("{\"word\":", out);
+        writeJsonWord(graph.getWordBytes(id), out);
+        writeAscii(",\"total\":", out);
+        writeNumber(graph.getTotal(id), out);
+        writeAscii(",\"successors\":[", out);
+        for(int i = 0; i < graph.getDegree(id); i++)
+        {
+            if(i > 0)
+                out.write(',');
+            out.write('[');
+            writeJsonWord(graph.getWordBytes(graph.getSuccessor(id, i)), out);
+            out.write(',');
+            writeNumber(graph.getSuccessorCount(id, i), out);
+            out.write(']');
+        }
+        writeAscii("]}\n", out);
+    }
+
+
+    /**
+     * Writes the binary record of a vertex.
+     * @param id the id of the vertex
+     * @param out where to write the record
+     */
+    private void encodeBinary(int id, ByteArrayOutputStream out)
+    {
+        byte[] word = graph.getWordBytes(id);
+        writeInt(word.length, out);
+        out.write(word, 0, word.length);
+        writeInt(graph.getDegree(id), out);
+        for(int i = 0; i < graph.getDegree(id); i++)
+        {
+            writeInt(graph.getSuccessor(id, i), out);
+            writeInt(graph.getSuccessorCount(id, i), out);
+        }
+    }
+
+
+    /**
+     * Writes a word for a TSV file, where a tab inside the word is written as "\t".
+     * Words never hold backslashes or line breaks, since formatWord() cuts them off.
+     * @param word the UTF-8 bytes of the word
+     * @param out where to write the word
+     */
+    private static void writeTsvWord(byte[] word, ByteArrayOutputStream out)
+    {
+        for(byte b : word)
+        {
+            if(b == '\t')
+                writeAscii("\\t", out);
+            else
+                out.write(b);
+        }
+    }
+
+
+    /**
+     * Writes a word as a JSON string, escaping quotes, backslashes and control characters.
+     * @param word the UTF-8 bytes of the word
+     * @param out where to write the string
+     */
+    private static void writeJsonWord(byte[] word, ByteArrayOutputStream out)
+    {
+        out.write('"');
+        for(byte b : word)
+        {
+            if(b == '"' || b == '\\')
+            {
+                out.write('\\');
+                out.write(b);
+            }
+            else if(b >= 0 && b < 0x20)
+            {
+                writeAscii(String.format("\\u%04x", (int) b), out);
+            }
+            else
+            {
+                out.write(b);
+            }
+        }
+        out.write('"');
+    }
+
+
+    /**
+     * Writes a number in decimal.
+     * @param value the number to write
+     * @param out where to write the number
+     */
+    private static void writeNumber(int value, ByteArrayOutputStream out)
+    {
+        writeAscii(Integer.toString(value), out);
+    }
+
+
+    /**
+     * Writes a String made only of ASCII characters.
+     * @param text the text to write
+     * @param out where to write the text
+     */
+    private static void writeAscii(String text, ByteArrayOutputStream out)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Writes a big-endian int.
+     * @param value the int to write
+     * @param out where to write the int
+     */
+    private static void writeInt(int value, ByteArrayOutputStream out)
+    {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+
+    /**
+     * Counts the edges of the whole graph.
+     * @return the number of edges
+     */
+    private int edgeCount()
+    {
+        int edgeCount = 0;
+        for(int id = 0; id < graph.size(); id++)
+        {
+            edgeCount += graph.getDegree(id);
+        }
+        return edgeCount;
+    }
+
+
+    /**
+     * Writes a whole buffer to a channel, which may take more than one call.
+     * @param channel the channel to write to
+     * @param buffer the bytes to write
+     * @throws IOException if the channel can't be written
+     */
+    private static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package comprehensive;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Times building a DirectedGraph from the word pairs of War and Peace, then reports how many
+ * connections are added per second and how much heap the finished graph takes.
+ * The words are split and formatted before timing starts, so only addConnection() is timed.
+ */
+public class GraphTimer extends TimerTemplate {
+
+    private static String[] words;
+
+    /**
+     * Create a timer
+     *
+     * @param problemSizes array of N's to use (number of connections to add)
+     * @param timesToLoop  number of times to repeat the tests
+     */
+    public GraphTimer(int[] problemSizes, int timesToLoop) {
+        super(problemSizes, timesToLoop);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        ArrayList<String> formattedWords = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new FileReader("src/warAndPeace.txt"))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                for(String word : GenerativeModel.split(line)) {
+                    String formattedWord = GenerativeModel.formatWord(word);
+                    if(!formattedWord.isEmpty())
+                        formattedWords.add(formattedWord.intern());
+                }
+            }
+        }
+        words = formattedWords.toArray(new String[0]);
+
+        var timer = new GraphTimer(new int[]{words.length - 1}, 20);
+        System.out.println("n, connections per second");
+        for(var result : timer.run()) {
+            System.out.println(result.n() + ", " + (long) (result.n() / (result.avgNanoSecs() / 1e9)));
+        }
+
+        long before = usedMemory();
+        DirectedGraph graph = build(words.length - 1);
+        long graphBytes = usedMemory() - before;
+        System.out.println("vertexes: " + graph.getVertexes().length + ", graph bytes (words not counted): " + graphBytes);
+    }
+
+
+    /**
+     * Builds a graph from the first n word pairs.
+     * @param n the number of connections to add
+     * @return the graph
+     */
+    private static DirectedGraph build(int n) {
+        DirectedGraph graph = new DirectedGraph();
+        for(int i = 0; i < n; i++) {
+            graph.addConnection(words[i], words[i + 1]);
+        }
+        return graph;
+    }
+
+
+    /**
+     * Gets the memory used by the heap after a few garbage collections.
+     * @return the number of bytes in use
+     */
+    private static long usedMemory() {
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+
+    @Override
+    protected void setup(int n) {
+
+    }
+
+
+    @Override
+    protected void timingIteration(int n)
+    {
+        build(n);
+    }
+
+    @Override
+    protected void compensationIteration(int n) {
+
+    }
+}
@@ -0,0 +1,41 @@
+package comprehensive;
+
+import java.io.IOException;
+
+/**
+ * Trains a model on a text file once and saves it as a binary model file,
+ * which TextGenerator can then open in place of the text file without parsing anything.
+ * <P>
+ * Command line arguments are as follows:
+ * <p>
+ * - 1st arg: file path of the text file to train on
+ * <p>
+ * - 2nd arg: file path of the model file to write
+ * <p>
+ * - 3rd arg (optional): file path of a checkpoint file. Training saves its progress there every
+ * CHECKPOINT_LINES lines, and if the file already exists, training picks up where it left off
+ * @see CompiledGraph#save(String) for the model file format
+ */
+public class ModelCompiler
+{
+    //the number of lines of text between checkpoints
+    private static final long CHECKPOINT_LINES = 100_000;
+
+    /**
+     * Method where actual code is run.
+     * @param args command line arguments to add to program, usage detailed in Class Javadoc
+     * @throws IOException if the text file can't be read or the model file can't be written
+     * @throws IllegalArgumentException if the number of arguments is incorrect
+     */
+    public static void main(String[] args) throws IOException, IllegalArgumentException
+    {
+        if(args.length != 2 && args.length != 3)
+        {
+            throw new IllegalArgumentException("Incorrect number of command line arguments");
+        }
+        GenerativeModel model = (args.length == 3)
+                ? new GenerativeModel(args[0], args[2], CHECKPOINT_LINES)
+                : new GenerativeModel(args[0]);
+        model.save(args[1]);
+    }
+}
@@ -1,6 +1,6 @@
 package comprehensive;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * Contains a generative text algorithm which generates predicted text based on a given input
@@ -10,7 +10,8 @@ import java.io.FileNotFoundException;
  * <P>
  * Command line arguments are as follows:
  * <p>
- * - 1st arg: file path of the text file to generate text from, filepath must be valid
+ * - 1st arg: file path of the text file to generate text from, filepath must be valid.
+ * This can also be a model file written by ModelCompiler, which is opened lazily instead of being parsed
  * <p>
  * - 2nd arg: seed word, used to start the text generation
  * (note: program will return nothing if no references to the word are found in the given text file)
@@ -30,13 +31,14 @@ public class TextGenerator
     /**
      * Method where actual code is run.
      * @param args command line arguments to add to program, usage detailed in Class Javadoc
-     * @throws FileNotFoundException if the given filepath is invalid
+     * @throws java.io.FileNotFoundException if the given filepath is invalid
+     * @throws IOException if the given file can't be read
      * @throws IllegalArgumentException if the 3rd argument is not an integer, or if the number of arguments is incorrect
      */
-    public static void main(String[] args) throws FileNotFoundException, IllegalArgumentException
+    public static void main(String[] args) throws IOException, IllegalArgumentException
     {
-        //take the file path argument and pass into generative model
-        GenerativeModel model = new GenerativeModel(args[0]);
+        //take the file path argument and pass into generative model, which is either trained or loaded from a model file
+        GenerativeModel model = GenerativeModel.open(args[0]);
 
         //check to see that args[2] is a valid integer
         try
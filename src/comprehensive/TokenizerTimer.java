@@ -0,0 +1,106 @@
+package comprehensive;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Times splitting and formatting every line of War and Peace, comparing split(String) and formatWord(String)
+ * with the overloads that write into buffers, both on Strings and on the UTF-8 bytes of the lines.
+ * Results are reported in nanoseconds per line, followed by the bytes allocated per line by each version.
+ */
+public class TokenizerTimer extends TimerTemplate {
+
+    private static String[] lines;
+    private static byte[][] byteLines;
+    private static final int[] ends = new int[1 << 16];
+    private static final byte[] out = new byte[1 << 16];
+    private final int version; // 0 for the String methods, 1 for the CharSequence overloads, 2 for the byte overloads
+    private long total; // keeps the work from being optimized away
+
+    /**
+     * Create a timer
+     *
+     * @param problemSizes array of N's to use (number of lines)
+     * @param timesToLoop  number of times to repeat the tests
+     * @param version 0 for the String methods, 1 for the CharSequence overloads, 2 for the byte overloads
+     */
+    public TokenizerTimer(int[] problemSizes, int timesToLoop, int version) {
+        super(problemSizes, timesToLoop);
+        this.version = version;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        List<String> allLines = Files.readAllLines(Path.of("src/warAndPeace.txt"));
+        lines = allLines.toArray(new String[0]);
+        byteLines = new byte[lines.length][];
+        for(int i = 0; i < lines.length; i++) {
+            byteLines[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        String[] names = {"split(String) + formatWord(String)", "CharSequence overloads", "byte[] overloads (SWAR)"};
+        System.out.println("version, n, nanoseconds per line");
+        for(int version = 0; version < names.length; version++) {
+            var timer = new TokenizerTimer(new int[]{lines.length}, 50, version);
+            for(var result : timer.run()) {
+                System.out.println(names[version] + ", " + result.n() + ", " + result.avgNanoSecs() / result.n());
+            }
+        }
+
+        //the JIT is warm now, so any allocation left is really made by the methods
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.println("version, bytes allocated per line");
+        for(int version = 0; version < names.length; version++) {
+            var timer = new TokenizerTimer(new int[0], 0, version);
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for(int i = 0; i < 20; i++) {
+                timer.timingIteration(lines.length);
+            }
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            System.out.println(names[version] + ", " + (double) allocated / (20L * lines.length));
+        }
+    }
+
+
+    @Override
+    protected void setup(int n) {
+
+    }
+
+
+    @Override
+    protected void timingIteration(int n)
+    {
+        for(int i = 0; i < n; i++) {
+            switch(version) {
+                case 0:
+                    for(String word : GenerativeModel.split(lines[i])) {
+                        total += GenerativeModel.formatWord(word).length();
+                    }
+                    break;
+                case 1:
+                    int words = GenerativeModel.split(lines[i], ends);
+                    for(int w = 0; w < words; w++) {
+                        total += GenerativeModel.formatWord(lines[i], (w == 0) ? 0 : ends[w - 1] + 1, ends[w], out, 0);
+                    }
+                    break;
+                case 2:
+                    byte[] line = byteLines[i];
+                    words = GenerativeModel.split(line, 0, line.length, ends);
+                    for(int w = 0; w < words; w++) {
+                        total += GenerativeModel.formatWord(line, (w == 0) ? 0 : ends[w - 1] + 1, ends[w], out, 0);
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    protected void compensationIteration(int n) {
+
+    }
+}
@@ -0,0 +1,271 @@
+package comprehensive;
+
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ *  A copy of a DirectedGraph part of the way through training, along with how far into the text file
+ *  training got, so a long training run can pick up where it left off instead of starting over.
+ *  <p>
+ *  The copy is taken all at once on the training thread, so it never sees the graph half updated, and can
+ *  then be written on another thread while training goes on. Words are kept in id order and given the
+ *  same ids again when restored, so a resumed run ends with exactly the same graph as one that never stopped.
+ *  <p>
+ *  A checkpoint is written to a temporary file next to the real one, forced to disk, and then renamed over
+ *  the old checkpoint, so a crash at any point leaves either the old checkpoint or the new one, never half of one.
+ *  <p>
+ *  The file is made of big-endian values: a magic number, the number of lines read, a hash of those lines,
+ *  the id of the last word read, the words (length then UTF-8 bytes), the number of successors of every word,
+ *  the destination and count of every successor, and a CRC32 of everything before it.
+ */
+public class TrainingCheckpoint {
+
+    private static final int MAGIC = 0x4d4b4331; // "MKC1", the first four bytes of a checkpoint
+
+    private final long linesRead; // the number of lines of the text file already in the graph
+    private final long linesHash; // a hash of those lines, to check the text file didn't change
+    private final int previousId; // the id of the last word read, or -1 if there isn't one
+    private final String[] words; // the word of every id
+    private final int[] degrees; // the number of successors of every id
+    private final int[] destinations; // the destination ids of every successor, grouped by source
+    private final int[] counts; // the occurrences of the successor at the same index
+
+    /**
+     * Creates a new TrainingCheckpoint object.
+     * @param linesRead the number of lines of the text file already in the graph
+     * @param linesHash the hash of those lines, from hashLine()
+     * @param previousId the id of the last word read, or -1 if there isn't one
+     * @param words the word of every id
+     * @param degrees the number of successors of every id
+     * @param destinations the destination ids of every successor, grouped by source
+     * @param counts the occurrences of the successor at the same index
+     */
+    private TrainingCheckpoint(long linesRead, long linesHash, int previousId, String[] words,
+                               int[] degrees, int[] destinations, int[] counts)
+    {
+        this.linesRead = linesRead;
+        this.linesHash = linesHash;
+        this.previousId = previousId;
+        this.words = words;
+        this.degrees = degrees;
+        this.destinations = destinations;
+        this.counts = counts;
+    }
+
+
+    /**
+     * Copies the graph so it can be written while the graph keeps changing.
+     * @param graph the graph being trained
+     * @param linesRead the number of lines of the text file already in the graph
+     * @param linesHash the hash of those lines, from hashLine()
+     * @param previousId the id of the last word read, or -1 if there isn't one
+     * @return a checkpoint holding its own copy of the graph
+     */
+    public static TrainingCheckpoint capture(DirectedGraph graph, long linesRead, long linesHash, int previousId)
+    {
+        int size = graph.size();
+        String[] words = new String[size];
+        int[] degrees = new int[size];
+        int edgeCount = 0;
+        for(int id = 0; id < size; id++)
+        {
+            words[id] = graph.getWord(id);
+            degrees[id] = graph.getDegree(id);
+            edgeCount += degrees[id];
+        }
+
+        int[] destinations = new int[edgeCount];
+        int[] counts = new int[edgeCount];
+        int position = 0;
+        for(int id = 0; id < size; id++)
+        {
+            position = graph.copySuccessors(id, destinations, counts, position);
+        }
+        return new TrainingCheckpoint(linesRead, linesHash, previousId, words, degrees, destinations, counts);
+    }
+
+
+    /**
+     * Adds the hash of one more line to the hash of the lines before it.
+     * @param hash the hash of the lines before this one, 0 for the first line
+     * @param line the line to add
+     * @return the hash of every line up to and including this one
+     */
+    public static long hashLine(long hash, String line)
+    {
+        return (hash + line.hashCode()) * 0x9e3779b97f4a7c15L;
+    }
+
+
+    /**
+     * Writes the checkpoint, replacing the old one only once the new one is fully on disk.
+     * @param path the path of the checkpoint file
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void write(Path path) throws IOException
+    {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeLong(linesRead);
+            out.writeLong(linesHash);
+            out.writeInt(previousId);
+            out.writeInt(words.length);
+            for(String word : words)
+            {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for(int degree : degrees)
+            {
+                out.writeInt(degree);
+            }
+            for(int i = 0; i < destinations.length; i++)
+            {
+                out.writeInt(destinations[i]);
+                out.writeInt(counts[i]);
+            }
+            out.flush();
+            //the CRC can't cover itself, so it is written straight to the channel
+            new DataOutputStream(Channels.newOutputStream(channel)).writeLong(crc.getValue());
+
+            //make sure the data is on disk before the rename makes it the real checkpoint
+            channel.force(true);
+        }
+
+        try
+        {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(AtomicMoveNotSupportedException e)
+        {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Reads a checkpoint written with write().
+     * @param path the path of the checkpoint file
+     * @return the checkpoint
+     * @throws IOException if the file can't be read, is not a checkpoint, or is damaged
+     */
+    public static TrainingCheckpoint read(Path path) throws IOException
+    {
+        try(InputStream file = Files.newInputStream(path))
+        {
+            //the CRC goes over the buffer, so it only sees the bytes that are actually read and not the CRC itself
+            CRC32 crc = new CRC32();
+            BufferedInputStream buffered = new BufferedInputStream(file, 1 << 16);
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            if(in.readInt() != MAGIC)
+            {
+                throw new IOException(path + " is not a checkpoint file");
+            }
+            long linesRead = in.readLong();
+            long linesHash = in.readLong();
+            int previousId = in.readInt();
+
+            String[] words = new String[in.readInt()];
+            for(int id = 0; id < words.length; id++)
+            {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                words[id] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int[] degrees = new int[words.length];
+            int edgeCount = 0;
+            for(int id = 0; id < words.length; id++)
+            {
+                degrees[id] = in.readInt();
+                edgeCount += degrees[id];
+            }
+            int[] destinations = new int[edgeCount];
+            int[] counts = new int[edgeCount];
+            for(int i = 0; i < edgeCount; i++)
+            {
+                destinations[i] = in.readInt();
+                counts[i] = in.readInt();
+            }
+
+            if(new DataInputStream(buffered).readLong() != crc.getValue())
+            {
+                throw new IOException(path + " is damaged");
+            }
+            return new TrainingCheckpoint(linesRead, linesHash, previousId, words, degrees, destinations, counts);
+        }
+        catch(EOFException e)
+        {
+            throw new IOException(path + " is cut off", e);
+        }
+    }
+
+
+    /**
+     * Puts the words and connections of the checkpoint into an empty graph, giving every word its old id.
+     * @param graph an empty graph to restore into
+     */
+    public void restore(DirectedGraph graph)
+    {
+        for(String word : words)
+        {
+            graph.addWord(word);
+        }
+        int position = 0;
+        for(int id = 0; id < words.length; id++)
+        {
+            for(int i = 0; i < degrees[id]; i++, position++)
+            {
+                graph.addConnection(id, destinations[position], counts[position]);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of lines of the text file that are already in the graph.
+     * @return the number of lines to skip when resuming
+     */
+    public long getLinesRead()
+    {
+        return linesRead;
+    }
+
+
+    /**
+     * Gets the hash of the lines that are already in the graph.
+     * @return the hash from hashLine() after the last line read
+     */
+    public long getLinesHash()
+    {
+        return linesHash;
+    }
+
+
+    /**
+     * Gets the id of the last word read, which the first word after the checkpoint connects to.
+     * @return the id of the word, or -1 if there isn't one
+     */
+    public int getPreviousId()
+    {
+        return previousId;
+    }
+}
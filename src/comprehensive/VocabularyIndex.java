@@ -0,0 +1,317 @@
+package comprehensive;
+
+
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ *  A minimal perfect hash over a fixed list of words, built with the hash-and-displace (CHD) method.
+ *  Every word in the list maps to its own slot from 0 to n - 1 with no collisions and no empty slots,
+ *  so a lookup is always a single probe: hash the word, read one displacement, and compare against
+ *  the one word stored in that slot.
+ *  <p>
+ *  The words are first hashed into buckets of about four words each. Going from the biggest bucket to
+ *  the smallest, each bucket is given the first displacement that sends all of its words to free slots.
+ *  Only the displacement of each bucket is stored, so the index takes about one byte per word, instead
+ *  of the entry, boxed Integer and table slot a HashMap needs for every word.
+ *  <p>
+ *  The index only knows where a word would be. It can't tell words that were never added apart from
+ *  the ones that were, so callers have to check the word stored in the returned slot.
+ */
+public class VocabularyIndex {
+
+    private static final int WORDS_PER_BUCKET = 4; // average bucket size, bigger buckets are smaller but slower to build
+    private static final int MAX_DISPLACEMENT = 1 << 24; // tries per bucket before starting over with a new seed
+
+    private final long seed; // the seed mixed into every hash
+    private final int size; // the number of words, which is also the number of slots
+    private final IntBuffer displacements; // the displacement of every bucket, which may be a view of a model file
+
+    /**
+     * Creates a new VocabularyIndex object from an already built table.
+     * @param seed the seed that was used to build the table
+     * @param size the number of words in the index
+     * @param displacements the displacement of every bucket
+     */
+    VocabularyIndex(long seed, int size, IntBuffer displacements)
+    {
+        this.seed = seed;
+        this.size = size;
+        this.displacements = displacements;
+    }
+
+
+    /**
+     * Builds a minimal perfect hash over the given words.
+     * @param words the UTF-8 bytes of every word, which must all be different
+     * @return an index that maps every word to a different slot from 0 to words.length - 1
+     * @throws IllegalArgumentException if the same word is given twice
+     */
+    public static VocabularyIndex build(byte[][] words)
+    {
+        //the same word twice could never be placed with any seed, so look for it before trying any
+        checkDifferent(words);
+
+        //with a bad seed a bucket can run out of displacements, so try again with another one
+        for(long seed = 0; seed < 64; seed++)
+        {
+            VocabularyIndex index = tryBuild(words, seed);
+            if(index != null)
+            {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("Could not build the index after 64 seeds");
+    }
+
+
+    /**
+     * Checks that no word is given twice, by comparing the bytes of words with the same 64 bit hash.
+     * @param words the UTF-8 bytes of every word
+     * @throws IllegalArgumentException if the same word is given twice
+     */
+    private static void checkDifferent(byte[][] words)
+    {
+        long[] hashes = new long[words.length];
+        for(int i = 0; i < words.length; i++)
+        {
+            hashes[i] = hash(words[i], 0, words[i].length, 0);
+        }
+        long[] sorted = hashes.clone();
+        Arrays.sort(sorted);
+        for(int i = 1; i < sorted.length; i++)
+        {
+            if(sorted[i] != sorted[i - 1])
+            {
+                continue;
+            }
+            //equal hashes almost always mean equal words, so find the words and compare them
+            ArrayList<byte[]> same = new ArrayList<>();
+            for(int j = 0; j < words.length; j++)
+            {
+                if(hashes[j] == sorted[i])
+                {
+                    for(byte[] other : same)
+                    {
+                        if(Arrays.equals(other, words[j]))
+                        {
+                            throw new IllegalArgumentException("\"" + new String(words[j], StandardCharsets.UTF_8) + "\" is given more than once");
+                        }
+                    }
+                    same.add(words[j]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tries to build the index with one seed.
+     * @param words the UTF-8 bytes of every word
+     * @param seed the seed to mix into every hash
+     * @return the index, or null if two words have the same hash or some bucket could not be placed with this seed
+     */
+    private static VocabularyIndex tryBuild(byte[][] words, long seed)
+    {
+        int size = words.length;
+        int bucketCount = Math.max(1, size / WORDS_PER_BUCKET);
+
+        //hash every word once and sort the hashes into buckets
+        ArrayList<ArrayList<Long>> buckets = new ArrayList<>(bucketCount);
+        for(int i = 0; i < bucketCount; i++)
+        {
+            buckets.add(new ArrayList<>(WORDS_PER_BUCKET));
+        }
+        for(byte[] word : words)
+        {
+            long hash = hash(word, 0, word.length, seed);
+            buckets.get(bucketOf(hash, bucketCount)).add(hash);
+        }
+
+        //two different words with the same hash always land on the same slot, so only another seed helps
+        for(ArrayList<Long> hashes : buckets)
+        {
+            for(int i = 1; i < hashes.size(); i++)
+            {
+                if(hashes.subList(0, i).contains(hashes.get(i)))
+                {
+                    return null;
+                }
+            }
+        }
+
+        //place the biggest buckets first, while there is still plenty of room
+        Integer[] order = new Integer[bucketCount];
+        for(int i = 0; i < bucketCount; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+
+        boolean[] taken = new boolean[size];
+        int[] displacements = new int[bucketCount];
+        int[] slots = new int[WORDS_PER_BUCKET * 8];
+        for(int bucket : order)
+        {
+            ArrayList<Long> hashes = buckets.get(bucket);
+            if(hashes.isEmpty())
+            {
+                break;
+            }
+            if(hashes.size() > slots.length)
+            {
+                slots = new int[hashes.size()];
+            }
+
+            int displacement = 0;
+            while(!fits(hashes, displacement, size, taken, slots))
+            {
+                if(++displacement == MAX_DISPLACEMENT)
+                {
+                    return null;
+                }
+            }
+            for(int i = 0; i < hashes.size(); i++)
+            {
+                taken[slots[i]] = true;
+            }
+            displacements[bucket] = displacement;
+        }
+        return new VocabularyIndex(seed, size, IntBuffer.wrap(displacements));
+    }
+
+
+    /**
+     * Checks if every hash in a bucket lands on a different free slot with the given displacement.
+     * @param hashes the hashes of the words in the bucket
+     * @param displacement the displacement to try
+     * @param size the number of slots
+     * @param taken which slots are already used by other buckets
+     * @param slots filled with the slot of every hash
+     * @return true if the bucket can use this displacement
+     */
+    private static boolean fits(ArrayList<Long> hashes, int displacement, int size, boolean[] taken, int[] slots)
+    {
+        for(int i = 0; i < hashes.size(); i++)
+        {
+            int slot = slotOf(hashes.get(i), displacement, size);
+            if(taken[slot])
+            {
+                return false;
+            }
+            for(int j = 0; j < i; j++)
+            {
+                if(slots[j] == slot)
+                {
+                    return false;
+                }
+            }
+            slots[i] = slot;
+        }
+        return true;
+    }
+
+
+    /**
+     * Gets the slot of the given word.
+     * @param word an array holding the UTF-8 bytes of the word
+     * @param from the index of the first byte of the word
+     * @param to the index after the last byte of the word
+     * @return the slot of the word if it is in the index, otherwise some slot that holds another word
+     */
+    public int slotOf(byte[] word, int from, int to)
+    {
+        long hash = hash(word, from, to, seed);
+        return slotOf(hash, displacements.get(bucketOf(hash, displacements.capacity())), size);
+    }
+
+
+    /**
+     * Gets the number of words in the index.
+     * @return the number of slots
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Gets the seed the index was built with, so it can be saved.
+     * @return the seed mixed into every hash
+     */
+    long getSeed()
+    {
+        return seed;
+    }
+
+
+    /**
+     * Gets the displacement of every bucket, so the index can be saved.
+     * @return the displacement table, which should not be changed
+     */
+    IntBuffer getDisplacements()
+    {
+        return displacements;
+    }
+
+
+    /**
+     * Hashes a range of bytes into 64 bits with FNV-1a, then mixes the result so every bit depends on every byte.
+     * @param bytes the array holding the bytes
+     * @param from the index of the first byte
+     * @param to the index after the last byte
+     * @param seed the seed to start from
+     * @return the 64 bit hash of the bytes
+     */
+    private static long hash(byte[] bytes, int from, int to, long seed)
+    {
+        long hash = 0xcbf29ce484222325L ^ (seed * 0x9e3779b97f4a7c15L);
+        for(int i = from; i < to; i++)
+        {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+
+    /**
+     * Scrambles the bits of a 64 bit value (the finalizer of MurmurHash3).
+     * @param value the value to scramble
+     * @return the scrambled value
+     */
+    private static long mix(long value)
+    {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+
+    /**
+     * Gets the bucket of a hash from its upper 32 bits.
+     * @param hash the hash of a word
+     * @param bucketCount the number of buckets
+     * @return the bucket from 0 to bucketCount - 1
+     */
+    private static int bucketOf(long hash, int bucketCount)
+    {
+        return (int) (((hash >>> 32) * bucketCount) >>> 32);
+    }
+
+
+    /**
+     * Gets the slot of a hash once its bucket's displacement is applied.
+     * @param hash the hash of a word
+     * @param displacement the displacement of the word's bucket
+     * @param size the number of slots
+     * @return the slot from 0 to size - 1
+     */
+    private static int slotOf(long hash, int displacement, int size)
+    {
+        return (int) (((mix(hash + displacement * 0x9e3779b97f4a7c15L) >>> 32) * size) >>> 32);
+    }
+}
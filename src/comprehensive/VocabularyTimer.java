@@ -0,0 +1,128 @@
+package comprehensive;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Times word lookups on the War and Peace vocabulary, comparing a HashMap from words to ids
+ * with the minimal perfect hash used by the CompiledGraph. Both are first given the same Strings,
+ * which are decoded before timing starts, so the only difference is the lookup itself.
+ * The perfect hash is then also timed on UTF-8 bytes, the way the tokenizer hands it words,
+ * which a HashMap of Strings can't do without building a String for every lookup.
+ * Results are reported in nanoseconds per lookup, followed by the memory taken by each index.
+ */
+public class VocabularyTimer extends TimerTemplate {
+
+    private static CompiledGraph compiled;
+    private static HashMap<String, Integer> ids;
+    private static String[] words; // the keys as Strings
+    private static byte[][] keys; // the keys as UTF-8 bytes
+    private final Lookup lookup;
+    private int found; // keeps the lookups from being optimized away
+
+    /**
+     * The ways a word can be looked up.
+     */
+    private enum Lookup {
+        HASH_MAP("HashMap, String"),
+        PERFECT_HASH_STRING("perfect hash, String"),
+        PERFECT_HASH_BYTES("perfect hash, UTF-8 bytes");
+
+        private final String label; // the name printed in the results
+
+        Lookup(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Create a timer
+     *
+     * @param problemSizes array of N's to use (number of lookups)
+     * @param timesToLoop  number of times to repeat the tests
+     * @param lookup the kind of lookup to time
+     */
+    private VocabularyTimer(int[] problemSizes, int timesToLoop, Lookup lookup) {
+        super(problemSizes, timesToLoop);
+        this.lookup = lookup;
+    }
+
+
+    public static void main(String[] args) throws FileNotFoundException {
+        compiled = new GenerativeModel("src/warAndPeace.txt").getDirectedGraph().compile();
+        words = new String[compiled.size()];
+        keys = new byte[compiled.size()][];
+        for(int id = 0; id < keys.length; id++) {
+            words[id] = compiled.getWord(id);
+            keys[id] = words[id].getBytes(StandardCharsets.UTF_8);
+        }
+
+        ids = new HashMap<>();
+        for(int id = 0; id < words.length; id++) {
+            ids.put(words[id], id);
+        }
+
+        long startTime = System.nanoTime();
+        VocabularyIndex index = VocabularyIndex.build(keys);
+        long buildNanos = System.nanoTime() - startTime;
+
+        System.out.println("lookup, key, n, nanoseconds per lookup");
+        for(Lookup lookup : Lookup.values()) {
+            var timer = new VocabularyTimer(new int[]{keys.length}, 2000, lookup);
+            for(var result : timer.run()) {
+                System.out.println(lookup.label + ", " + result.n() + ", " + result.avgNanoSecs() / result.n());
+            }
+        }
+        System.out.println("words: " + keys.length);
+        System.out.println("HashMap bytes (estimated, words not counted): " + hashMapBytes(keys.length));
+        System.out.println("perfect hash bytes: " + (index.getDisplacements().capacity() * 4L) + ", built in " + buildNanos / 1000000 + " ms");
+    }
+
+
+    /**
+     * Estimates the memory a HashMap from words to ids takes on a 64 bit JVM with compressed pointers:
+     * a 4 byte table slot (at a 0.75 load factor), a 32 byte node and a 16 byte Integer for every word.
+     * @param size the number of words in the map
+     * @return the estimated number of bytes, not counting the words themselves
+     */
+    private static long hashMapBytes(int size) {
+        long tableSize = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) - 1) << 1;
+        return tableSize * 4 + size * (32L + 16L);
+    }
+
+
+    @Override
+    protected void setup(int n) {
+
+    }
+
+
+    @Override
+    protected void timingIteration(int n)
+    {
+        switch(lookup) {
+            case HASH_MAP:
+                for(int i = 0; i < n; i++) {
+                    found += ids.get(words[i]);
+                }
+                break;
+            case PERFECT_HASH_STRING:
+                for(int i = 0; i < n; i++) {
+                    found += compiled.getId(words[i]);
+                }
+                break;
+            case PERFECT_HASH_BYTES:
+                for(int i = 0; i < n; i++) {
+                    byte[] key = keys[i];
+                    found += compiled.getId(key, 0, key.length);
+                }
+                break;
+        }
+    }
+
+    @Override
+    protected void compensationIteration(int n) {
+
+    }
+}